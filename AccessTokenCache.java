@@ -0,0 +1,118 @@
+package pl.itcraft.soma.core.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Two tier cache of access token to user id mapping: in-process LRU with short TTL backed by memcache.
+ * Users themselves are not cached, callers load user by id and check that its token still matches,
+ * so stale mappings (e.g. after login on other device) are never trusted.
+ */
+public class AccessTokenCache {
+
+	private static final int LOCAL_MAX_ENTRIES = 10000;
+	private static final long LOCAL_TTL_MILLIS = 60 * 1000;
+	private static final int MEMCACHE_TTL_SECONDS = 10 * 60;
+	private static final String MEMCACHE_PREFIX = "accessToken_";
+	private static final long METRICS_LOG_INTERVAL = 1000;
+
+	private static final Logger logger = Logger.getLogger(AccessTokenCache.class.getName());
+	private static final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+	private static final AtomicLong localHits = new AtomicLong();
+	private static final AtomicLong memcacheHits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	private static final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+			return size() > LOCAL_MAX_ENTRIES;
+		}
+	};
+
+	private AccessTokenCache() {}
+
+	/**
+	 * Returns id of user owning given token or null when token is not cached.
+	 */
+	public static Long getUserId(String accessToken) {
+		Long userId = getLocal(accessToken);
+		if (userId != null) {
+			localHits.incrementAndGet();
+		} else {
+			userId = (Long) memcacheService.get(MEMCACHE_PREFIX + accessToken);
+			if (userId != null) {
+				memcacheHits.incrementAndGet();
+				putLocal(accessToken, userId);
+			} else {
+				misses.incrementAndGet();
+			}
+		}
+		logMetrics();
+		return userId;
+	}
+
+	public static void put(String accessToken, Long userId) {
+		putLocal(accessToken, userId);
+		memcacheService.put(MEMCACHE_PREFIX + accessToken, userId, Expiration.byDeltaSeconds(MEMCACHE_TTL_SECONDS));
+	}
+
+	/**
+	 * Removes token from memcache and local cache of this instance. Other instances drop it after local TTL,
+	 * until then their entries are rejected by token check of loaded user if token was changed.
+	 */
+	public static void invalidate(String accessToken) {
+		if (accessToken == null) {
+			return;
+		}
+		synchronized (AccessTokenCache.class) {
+			entries.remove(accessToken);
+		}
+		memcacheService.delete(MEMCACHE_PREFIX + accessToken);
+	}
+
+	private static synchronized Long getLocal(String accessToken) {
+		CacheEntry entry = entries.get(accessToken);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expirationTime < System.currentTimeMillis()) {
+			entries.remove(accessToken);
+			return null;
+		}
+		return entry.userId;
+	}
+
+	private static synchronized void putLocal(String accessToken, Long userId) {
+		entries.put(accessToken, new CacheEntry(userId, System.currentTimeMillis() + LOCAL_TTL_MILLIS));
+	}
+
+	private static void logMetrics() {
+		long local = localHits.get();
+		long memcache = memcacheHits.get();
+		long missed = misses.get();
+		long lookups = local + memcache + missed;
+		if (lookups % METRICS_LOG_INTERVAL == 0) {
+			logger.info("Access token cache lookups: " + lookups + ", local hit rate: " + (100 * local / lookups)
+					+ "%, memcache hit rate: " + (100 * memcache / lookups) + "%, misses: " + missed);
+		}
+	}
+
+	private static class CacheEntry {
+		private final Long userId;
+		private final long expirationTime;
+
+		private CacheEntry(Long userId, long expirationTime) {
+			this.userId = userId;
+			this.expirationTime = expirationTime;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package pl.itcraft.soma.core.model.entities;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * Number of views of item counted by its memcache view buffer which are already added to item counter shards.
+ * Saved in the same transaction as the shard, so only views buffered since are added by next, or retried, task.
+ */
+@Entity
+public class AppliedItemViews {
+	@Id
+	private Long itemId;
+	private Long views = 0L;
+
+	public Long getItemId() {
+		return itemId;
+	}
+	public void setItemId(Long itemId) {
+		this.itemId = itemId;
+	}
+	public Long getViews() {
+		return views;
+	}
+	public void setViews(Long views) {
+		this.views = views;
+	}
+}
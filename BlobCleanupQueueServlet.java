@@ -0,0 +1,33 @@
+package pl.itcraft.soma.api.servlets.queue;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import pl.itcraft.soma.core.QueueUtils;
+import pl.itcraft.soma.core.service.BlobCleanupService;
+
+public class BlobCleanupQueueServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+	private final BlobCleanupService blobCleanupService = new BlobCleanupService();
+
+	private final static Logger logger = Logger.getLogger(BlobCleanupQueueServlet.class.getName());
+
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (QueueUtils.isRequestFromTaskQueue(request, response)) {
+			try {
+				blobCleanupService.deleteBlobs(request.getParameterValues(BlobCleanupService.BLOB_KEY_PARAMETER_NAME));
+			} catch (Exception e) {
+				// Non 2xx status makes task queue retry the task
+				logger.log(Level.WARNING, "error on deleting blobs", e);
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package pl.itcraft.soma.core.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.RetryOptions;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.googlecode.objectify.ObjectifyService;
+
+import pl.itcraft.soma.core.QueueUtils;
+
+/**
+ * Deletes orphaned Blobstore files in background tasks, so request threads never wait for Blobstore.
+ */
+public class BlobCleanupService {
+
+	public static final String BLOB_CLEANUP_QUEUE_URL = "/queue/blob-cleanup";
+	public static final String BLOB_KEY_PARAMETER_NAME = "blobKey";
+
+	private static final int BLOB_CLEANUP_BATCH_SIZE = 100;
+	private static final int BLOB_CLEANUP_RETRY_LIMIT = 10;
+
+	private final Logger logger = Logger.getLogger(BlobCleanupService.class.getName());
+	private final BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
+
+	/**
+	 * Enqueues deletion of given blob keys. When called inside Objectify transaction, tasks are added
+	 * transactionally and are enqueued only if transaction commits (max 5 tasks per transaction).
+	 */
+	public void enqueueBlobsDeletion(List<String> fileKeys) {
+		Queue queue = QueueFactory.getQueue(QueueUtils.UTILS_QUEUE_NAME);
+		for (int from = 0; from < fileKeys.size(); from += BLOB_CLEANUP_BATCH_SIZE) {
+			TaskOptions task = TaskOptions.Builder.withUrl(BLOB_CLEANUP_QUEUE_URL)
+					.retryOptions(RetryOptions.Builder.withTaskRetryLimit(BLOB_CLEANUP_RETRY_LIMIT).minBackoffSeconds(10));
+			for (String fileKey : fileKeys.subList(from, Math.min(from + BLOB_CLEANUP_BATCH_SIZE, fileKeys.size()))) {
+				if (fileKey != null) {
+					task.param(BLOB_KEY_PARAMETER_NAME, fileKey);
+				}
+			}
+			if (ObjectifyService.ofy().getTransaction() != null) {
+				queue.add(ObjectifyService.ofy().getTransaction(), task);
+			} else {
+				queue.add(task);
+			}
+		}
+	}
+
+	/**
+	 * Deletes given blobs with a single Blobstore call. Exceptions are propagated so the task is retried.
+	 */
+	public void deleteBlobs(String[] fileKeys) {
+		if (fileKeys == null || fileKeys.length == 0) {
+			return;
+		}
+		List<BlobKey> blobKeys = new ArrayList<>(fileKeys.length);
+		for (String fileKey : fileKeys) {
+			blobKeys.add(new BlobKey(fileKey));
+		}
+		blobstoreService.delete(blobKeys.toArray(new BlobKey[blobKeys.size()]));
+		logger.info("Deleted blobs : " + blobKeys.size());
+	}
+}
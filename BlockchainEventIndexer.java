@@ -0,0 +1,131 @@
+package pl.itcraft.soma.core.service;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+import com.googlecode.objectify.ObjectifyService;
+
+import pl.itcraft.soma.core.Constants;
+import pl.itcraft.soma.core.model.entities.BlockchainIndexerCheckpoint;
+import pl.itcraft.soma.core.model.entities.Item;
+import pl.itcraft.soma.core.objectify.OfyBatchUtils;
+import pl.itcraft.soma.core.utils.BlockchainLogSource;
+import pl.itcraft.soma.core.utils.BlockchainUtils;
+import pl.itcraft.soma.core.utils.Web3jBlockchainLogSource;
+import pl.itcraft.soma.core.utils.Web3jProvider;
+
+/**
+ * Tails IIC and SCT contract event logs by block range and updates matching items in batches.
+ * Minted IIC ids are matched by {@link Item#getCreateTransactionHash()}, completed purchases by
+ * {@link Item#getBuyTransactionHash()} and SCT transfer of item price to seller, IIC owner changes by
+ * {@link Item#getChangeOwnerTransactionHash()}. Last processed block of each contract is persisted after every range,
+ * so node load depends on number of new blocks, not on number of pending items.
+ */
+public class BlockchainEventIndexer {
+
+	private static final long CONFIRMATION_BLOCKS = 3;
+	private static final long BLOCK_RANGE_SIZE = 1000;
+	private static final long MAX_BLOCKS_PER_RUN = 20000;
+	private static final int IN_FILTER_LIMIT = 30;
+
+	private final Logger logger = Logger.getLogger(BlockchainEventIndexer.class.getName());
+	private final BlockchainLogSource logSource;
+	private final ItemService itemService = new ItemService();
+
+	public BlockchainEventIndexer() {
+		this(new Web3jBlockchainLogSource(Web3jProvider.getWeb3j()));
+	}
+
+	public BlockchainEventIndexer(BlockchainLogSource logSource) {
+		this.logSource = logSource;
+	}
+
+	public void indexEvents() {
+		long confirmedBlock = logSource.getLatestBlockNumber().longValue() - CONFIRMATION_BLOCKS;
+		indexContract(Constants.IIC_CONTRACT_ADDRESS, confirmedBlock, this::applyIICEvents);
+		indexContract(Constants.SCT_CONTRACT_ADDRESS, confirmedBlock, this::applySoldItems);
+	}
+
+	private void indexContract(String contractAddress, long confirmedBlock, LogsHandler handler) {
+		BlockchainIndexerCheckpoint checkpoint = ObjectifyService.ofy().load().type(BlockchainIndexerCheckpoint.class).id(contractAddress).now();
+		// Without checkpoint start from recent blocks, older pending items are still handled by receipt polling
+		long fromBlock = checkpoint != null ? checkpoint.getLastProcessedBlock() + 1 : Math.max(confirmedBlock - BLOCK_RANGE_SIZE + 1, 0);
+		long lastBlock = Math.min(confirmedBlock, fromBlock + MAX_BLOCKS_PER_RUN - 1);
+
+		int logsCount = 0;
+		int updatedItems = 0;
+		for (long from = fromBlock; from <= lastBlock; from += BLOCK_RANGE_SIZE) {
+			long to = Math.min(from + BLOCK_RANGE_SIZE - 1, lastBlock);
+			List<Log> logs = logSource.getLogs(contractAddress, BigInteger.valueOf(from), BigInteger.valueOf(to));
+
+			Map<String, List<Log>> logsByTransactionHash = new LinkedHashMap<>();
+			for (Log log : logs) {
+				if (!log.isRemoved()) {
+					logsByTransactionHash.computeIfAbsent(log.getTransactionHash(), hash -> new ArrayList<>()).add(log);
+				}
+			}
+			logsCount += logs.size();
+			if (!logsByTransactionHash.isEmpty()) {
+				updatedItems += handler.handle(logsByTransactionHash);
+			}
+			ObjectifyService.ofy().save().entity(new BlockchainIndexerCheckpoint(contractAddress, to)).now();
+		}
+		logger.info("Indexed contract " + contractAddress + " blocks " + fromBlock + "-" + lastBlock + ", logs: " + logsCount + ", updated items: " + updatedItems);
+	}
+
+	private int applyIICEvents(Map<String, List<Log>> logsByTransactionHash) {
+		return applyMintedItems(logsByTransactionHash)
+				+ itemService.confirmOwnerChanges(findItems("changeOwnerTransactionHash", logsByTransactionHash.keySet()));
+	}
+
+	private int applyMintedItems(Map<String, List<Log>> logsByTransactionHash) {
+		List<Item> itemsToSave = new ArrayList<>();
+		for (Item item : findItems("createTransactionHash", logsByTransactionHash.keySet())) {
+			if (item.getBlockchainId() == null) {
+				item.setBlockchainId(BlockchainUtils.getItemBlockchainId(logsByTransactionHash.get(item.getCreateTransactionHash()).get(0)));
+				item.setCreateTransactionHash(null);
+				itemsToSave.add(item);
+			}
+		}
+		return saveItems(itemsToSave);
+	}
+
+	/**
+	 * Item is sold only if its buy transaction contains SCT transfer of item price to seller, other transactions
+	 * are left to receipt polling.
+	 */
+	private int applySoldItems(Map<String, List<Log>> logsByTransactionHash) {
+		Map<Item, List<Log>> buyTransactionLogs = new HashMap<>();
+		for (Item item : findItems("buyTransactionHash", logsByTransactionHash.keySet())) {
+			buyTransactionLogs.put(item, logsByTransactionHash.get(item.getBuyTransactionHash()));
+		}
+		return itemService.confirmSales(buyTransactionLogs).size();
+	}
+
+	private List<Item> findItems(String transactionHashProperty, Collection<String> transactionHashes) {
+		List<String> hashes = new ArrayList<>(transactionHashes);
+		List<Item> items = new ArrayList<>();
+		for (int from = 0; from < hashes.size(); from += IN_FILTER_LIMIT) {
+			List<String> chunk = hashes.subList(from, Math.min(from + IN_FILTER_LIMIT, hashes.size()));
+			items.addAll(ObjectifyService.ofy().load().type(Item.class).filter(transactionHashProperty + " in", chunk).list());
+		}
+		return items;
+	}
+
+	private int saveItems(List<Item> items) {
+		OfyBatchUtils.save(items);
+		return items.size();
+	}
+
+	private interface LogsHandler {
+		int handle(Map<String, List<Log>> logsByTransactionHash);
+	}
+}
@@ -0,0 +1,43 @@
+package pl.itcraft.soma.core.model.entities;
+
+import java.util.Date;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+@Entity
+public class BlockchainIndexerCheckpoint {
+
+	@Id
+	private String contractAddress;
+	private Long lastProcessedBlock;
+	private Date updateDate;
+
+	public BlockchainIndexerCheckpoint() {}
+
+	public BlockchainIndexerCheckpoint(String contractAddress, Long lastProcessedBlock) {
+		this.contractAddress = contractAddress;
+		this.lastProcessedBlock = lastProcessedBlock;
+		this.updateDate = new Date();
+	}
+
+	public String getContractAddress() {
+		return contractAddress;
+	}
+	public void setContractAddress(String contractAddress) {
+		this.contractAddress = contractAddress;
+	}
+	public Long getLastProcessedBlock() {
+		return lastProcessedBlock;
+	}
+	public void setLastProcessedBlock(Long lastProcessedBlock) {
+		this.lastProcessedBlock = lastProcessedBlock;
+	}
+	public Date getUpdateDate() {
+		return updateDate;
+	}
+	public void setUpdateDate(Date updateDate) {
+		this.updateDate = updateDate;
+	}
+
+}
@@ -0,0 +1,17 @@
+package pl.itcraft.soma.core.utils;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Source of contract event logs read by {@link pl.itcraft.soma.core.service.BlockchainEventIndexer}.
+ * Allows indexer to run against local Ethereum node or recorded logs instead of production node.
+ */
+public interface BlockchainLogSource {
+
+	BigInteger getLatestBlockNumber();
+
+	List<Log> getLogs(String contractAddress, BigInteger fromBlock, BigInteger toBlock);
+}
@@ -0,0 +1,156 @@
+package pl.itcraft.soma.core.utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * In-memory read-through cache for contract reads (eth_call), keyed by contract, function and arguments.
+ * Entries expire after short TTL and least recently used entries are evicted when cache is full.
+ * Values are cached per instance and hits never leave the process. Invalidation is shared: invalidated keys are kept
+ * with invalidation time in one memcache entry, which every instance reads at most once per sync interval and drops
+ * its entries loaded before that time, so keys invalidated when transaction is confirmed are reloaded everywhere.
+ */
+public class BlockchainReadCache {
+
+	public static final long OWNER_OF_TTL_MILLIS = 15 * 1000;
+	public static final long BALANCE_TTL_MILLIS = 30 * 1000;
+	public static final long IIC_LIST_TTL_MILLIS = 60 * 1000;
+
+	private static final int MAX_ENTRIES = 10000;
+	private static final long INVALIDATION_SYNC_MILLIS = 1000;
+	private static final String INVALIDATIONS_CACHE_KEY = "blockchainReadInvalidations";
+	private static final int MAX_UPDATE_ATTEMPTS = 10;
+
+	private static final Logger logger = Logger.getLogger(BlockchainReadCache.class.getName());
+	private static final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+	private static long lastSyncTime = 0;
+
+	private static final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private BlockchainReadCache() {}
+
+	public static String key(String contractAddress, String function, Object... args) {
+		StringBuilder sb = new StringBuilder(contractAddress.toLowerCase()).append('#').append(function);
+		for (Object arg : args) {
+			sb.append('#').append(arg instanceof String ? ((String) arg).toLowerCase() : arg);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns cached value or calls loader and caches its result. Loader is called outside of lock,
+	 * null results are not cached.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T get(String key, long ttlMillis, Supplier<T> loader) {
+		T value = (T) getIfPresent(key);
+		if (value == null) {
+			long loadTime = System.currentTimeMillis();
+			value = loader.get();
+			if (value != null) {
+				put(key, value, loadTime, ttlMillis);
+			}
+		}
+		return value;
+	}
+
+	public static Object getIfPresent(String key) {
+		syncInvalidationsIfDue();
+		CacheEntry entry = getEntry(key);
+		return entry != null ? entry.value : null;
+	}
+
+	/**
+	 * Invalidates key on all instances, other instances drop their entry within sync interval.
+	 */
+	public static void invalidate(String key) {
+		long now = System.currentTimeMillis();
+		synchronized (BlockchainReadCache.class) {
+			entries.remove(key);
+		}
+		for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+			IdentifiableValue current = memcacheService.getIdentifiable(INVALIDATIONS_CACHE_KEY);
+			HashMap<String, Long> invalidations = current != null ? copy(current) : new HashMap<>();
+			// Entries loaded before now minus the longest TTL are expired anyway
+			invalidations.values().removeIf(invalidationTime -> invalidationTime < now - IIC_LIST_TTL_MILLIS);
+			invalidations.put(key, now);
+			if (current == null ? memcacheService.put(INVALIDATIONS_CACHE_KEY, invalidations, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+					: memcacheService.putIfUntouched(INVALIDATIONS_CACHE_KEY, current, invalidations)) {
+				return;
+			}
+		}
+		logger.warning("Blockchain read not invalidated on other instances because of concurrent updates, key: " + key);
+	}
+
+	/**
+	 * Drops local entries loaded before their key was invalidated. Whole invalidation list is applied on every sync,
+	 * so entry loaded concurrently with invalidation is dropped by next sync.
+	 */
+	private static void syncInvalidationsIfDue() {
+		long now = System.currentTimeMillis();
+		synchronized (BlockchainReadCache.class) {
+			if (now - lastSyncTime < INVALIDATION_SYNC_MILLIS) {
+				return;
+			}
+			lastSyncTime = now;
+		}
+		@SuppressWarnings("unchecked")
+		Map<String, Long> invalidations = (Map<String, Long>) memcacheService.get(INVALIDATIONS_CACHE_KEY);
+		if (invalidations == null || invalidations.isEmpty()) {
+			return;
+		}
+		synchronized (BlockchainReadCache.class) {
+			for (Map.Entry<String, Long> invalidation : invalidations.entrySet()) {
+				CacheEntry entry = entries.get(invalidation.getKey());
+				if (entry != null && entry.loadTime <= invalidation.getValue()) {
+					entries.remove(invalidation.getKey());
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static HashMap<String, Long> copy(IdentifiableValue value) {
+		return new HashMap<>((Map<String, Long>) value.getValue());
+	}
+
+	private static synchronized CacheEntry getEntry(String key) {
+		CacheEntry entry = entries.get(key);
+		if (entry != null && entry.expirationTime < System.currentTimeMillis()) {
+			entries.remove(key);
+			return null;
+		}
+		return entry;
+	}
+
+	private static synchronized void put(String key, Object value, long loadTime, long ttlMillis) {
+		entries.put(key, new CacheEntry(value, loadTime, loadTime + ttlMillis));
+	}
+
+	private static class CacheEntry {
+		private final Object value;
+		private final long loadTime;
+		private final long expirationTime;
+
+		private CacheEntry(Object value, long loadTime, long expirationTime) {
+			this.value = value;
+			this.loadTime = loadTime;
+			this.expirationTime = expirationTime;
+		}
+	}
+}
@@ -2,10 +2,14 @@ package pl.itcraft.soma.core.utils;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang.StringUtils;
@@ -16,58 +20,120 @@ import org.web3j.abi.datatypes.Address;
 import org.web3j.abi.datatypes.Function;
 import org.web3j.abi.datatypes.Type;
 import org.web3j.abi.datatypes.generated.Uint256;
-import org.web3j.crypto.CipherException;
 import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
 import org.web3j.crypto.RawTransaction;
 import org.web3j.crypto.TransactionEncoder;
-import org.web3j.crypto.WalletUtils;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
 import org.web3j.protocol.core.methods.request.Transaction;
 import org.web3j.protocol.core.methods.response.EthCall;
 import org.web3j.protocol.core.methods.response.EthGetTransactionCount;
 import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
 import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.Log;
 import org.web3j.protocol.core.methods.response.TransactionReceipt;
-import org.web3j.protocol.http.HttpService;
 import org.web3j.utils.Numeric;
 
 import pl.itcraft.soma.core.Constants;
 import pl.itcraft.soma.core.dto.BlockchainTransactionStatusDto;
-import pl.itcraft.soma.core.objectify.OfyHelper;
 
 public class BlockchainUtils {
 	
 	private static final Logger logger = Logger.getLogger(BlockchainUtils.class.getName());
+
+	public static final int NODE_CONCURRENT_REQUESTS = 20;
+	public static final String TRANSFER_EVENT_TOPIC = Hash.sha3String("Transfer(address,address,uint256)");
 	
 	public static String sendTransaction(String signedTransaction) {
 		if (StringUtils.isBlank(signedTransaction)) {
 			logger.warning("Transaction is empty");
 			return null;
 		}
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
+		return sendRawTransaction(signedTransaction).getTransactionHash();
+	}
+
+	/**
+	 * Signs transaction calling given contract function with server wallet and sends it.
+	 * Nonce is taken from {@link NonceManager}, so concurrent calls on all instances do not wait for node
+	 * and do not collide.
+	 */
+	public static String sendServerSignedTransaction(String contractAddress, Function function) {
+		Credentials credentials = EthereumWalletCredentials.get();
+		BigInteger nonce = NonceManager.allocate(Web3jProvider.getWeb3j(), credentials.getAddress());
+		RawTransaction rawTransaction = RawTransaction.createTransaction(nonce, Constants.GAS_PRICE, Constants.GAS_LIMIT, contractAddress, FunctionEncoder.encode(function));
+		byte[] signedTransaction = TransactionEncoder.signMessage(rawTransaction, credentials);
+		try {
+			EthSendTransaction transaction = sendRawTransaction(Numeric.toHexString(signedTransaction));
+			if (transaction.getError() != null) {
+				NonceManager.release(Web3jProvider.getWeb3j(), credentials.getAddress(), nonce);
+			}
+			return transaction.getTransactionHash();
+		} catch (RuntimeException e) {
+			NonceManager.release(Web3jProvider.getWeb3j(), credentials.getAddress(), nonce);
+			throw e;
+		}
+	}
+
+	private static EthSendTransaction sendRawTransaction(String signedTransaction) {
+		Web3j web3 = Web3jProvider.getWeb3j();
 		Request<?, EthSendTransaction> req = web3.ethSendRawTransaction(signedTransaction);
 		try {
 			EthSendTransaction transaction = req.send();
-			String transactionHash = transaction.getTransactionHash();
-			logger.info("Transaction hash: " + transactionHash);
+			logger.info("Transaction hash: " + transaction.getTransactionHash());
 			if (transaction.getError() != null) {
 				logger.warning(transaction.getError().getMessage());
 				logger.warning(transaction.getError().getData());
 			}
-			return transactionHash;
+			return transaction;
 		} catch (IOException e) {
 			logger.warning("IOException in sending transaction to blockchain");
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Sends requests to node concurrently and returns responses in order of requests. Requests are pipelined:
+	 * a new one is sent as soon as any of at most {@code concurrency} in flight completes, so the whole list costs
+	 * about {@code requests / concurrency} node round trips. Concurrency is also bounded by web3j async executor.
+	 * Throws when any request fails.
+	 */
+	public static <T extends Response<?>> List<T> sendConcurrently(List<Request<?, T>> requests, int concurrency) {
+		List<T> responses = new ArrayList<>(requests.size());
+		for (CompletableFuture<T> future : sendAsyncLimited(requests, concurrency)) {
+			try {
+				responses.add(future.join());
+			} catch (CompletionException e) {
+				logger.warning("Exception in sending concurrent requests to blockchain");
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * Sends requests asynchronously keeping at most {@code concurrency} of them in flight. Returns after the last
+	 * request is sent, futures are in order of requests and may complete exceptionally.
+	 */
+	public static <T extends Response<?>> List<CompletableFuture<T>> sendAsyncLimited(List<Request<?, T>> requests, int concurrency) {
+		Semaphore inFlight = new Semaphore(concurrency);
+		List<CompletableFuture<T>> futures = new ArrayList<>(requests.size());
+		for (Request<?, T> request : requests) {
+			inFlight.acquireUninterruptibly();
+			CompletableFuture<T> future = request.sendAsync();
+			future.whenComplete((response, e) -> inFlight.release());
+			futures.add(future);
+		}
+		return futures;
+	}
+	
 	public static String getItemBlockchainIdFromTransactionHash(Web3j web3, String transactionHash) {
 		Request<?, EthGetTransactionReceipt> receipt = web3.ethGetTransactionReceipt(transactionHash);
 		Optional<String> blockchainId;
 		try {
-			blockchainId = receipt.send().getTransactionReceipt().map(tr -> Numeric.toBigInt(tr.getLogs().get(0).getData()).toString());
+			blockchainId = receipt.send().getTransactionReceipt().map(tr -> getItemBlockchainId(tr));
 			return blockchainId.orElse(null);
 		} catch (IOException e) {
 			logger.warning("IOException in getting item blockchain id from transaciton hash");
@@ -75,6 +141,14 @@ public class BlockchainUtils {
 		}
 	}
 	
+	public static String getItemBlockchainId(TransactionReceipt transactionReceipt) {
+		return getItemBlockchainId(transactionReceipt.getLogs().get(0));
+	}
+	
+	public static String getItemBlockchainId(Log log) {
+		return Numeric.toBigInt(log.getData()).toString();
+	}
+	
 	public static BigInteger getNextAvailableNonce(Web3j web3, String address) {
 		try {
 			EthGetTransactionCount ethGetTransactionCount = web3.ethGetTransactionCount(address, DefaultBlockParameterName.PENDING).send();
@@ -87,7 +161,15 @@ public class BlockchainUtils {
 	}
 	
 	public static String getOwnerOfIIC(String address, String blockchainId) {
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
+		return BlockchainReadCache.get(ownerOfIICCacheKey(blockchainId), BlockchainReadCache.OWNER_OF_TTL_MILLIS, () -> loadOwnerOfIIC(address, blockchainId));
+	}
+
+	public static String ownerOfIICCacheKey(String blockchainId) {
+		return BlockchainReadCache.key(Constants.IIC_CONTRACT_ADDRESS, "ownerOf", blockchainId);
+	}
+
+	private static String loadOwnerOfIIC(String address, String blockchainId) {
+		Web3j web3 = Web3jProvider.getWeb3j();
 		Function function = new Function(
 			"ownerOf",
 			Arrays.asList(new Uint256(new BigInteger(blockchainId))),
@@ -106,25 +188,12 @@ public class BlockchainUtils {
 	}
 	
 	public static String mintTestSCT(String address, BigInteger amount) {
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
 		Function function = new Function(
 			"mint",
 			Arrays.asList(new Address(address), new Uint256(amount)),
 			Collections.<TypeReference<?>>emptyList()
 			);
-		try {
-			Credentials credentials = WalletUtils.loadCredentials(Constants.ETHEREUM_WALLET_PASSWORD, OfyHelper.getServletContext().getRealPath("WEB-INF/ethereum_wallet.json"));
-			BigInteger nonce = BlockchainUtils.getNextAvailableNonce(web3, credentials.getAddress());
-			RawTransaction rawTransaction = RawTransaction.createTransaction(nonce, Constants.GAS_PRICE, Constants.GAS_LIMIT, Constants.SCT_CONTRACT_ADDRESS, FunctionEncoder.encode(function));
-			byte[] signedTransaction = TransactionEncoder.signMessage(rawTransaction, credentials);
-			return BlockchainUtils.sendTransaction(Numeric.toHexString(signedTransaction));
-		} catch (IOException e) {
-			logger.warning("IOException in minting Test SCT");
-			throw new RuntimeException(e);
-		} catch (CipherException e) {
-			logger.warning("CipherException in minting Test SCT");
-			throw new RuntimeException(e);
-		}
+		return sendServerSignedTransaction(Constants.SCT_CONTRACT_ADDRESS, function);
 	}
 	
 	public static BlockchainTransactionStatusDto checkTransactionStatus(Web3j web3, String transactionHash) {
@@ -134,20 +203,93 @@ public class BlockchainUtils {
 			if (!optionalReceipt.isPresent()) {
 				return BlockchainTransactionStatusDto.pending();
 			}
-			TransactionReceipt transactionReceipt = optionalReceipt.get();
-			if (Numeric.toBigInt(transactionReceipt.getStatus()).intValue() == 1) {
-				return BlockchainTransactionStatusDto.success();
-			}
-			//TODO set some meaningful error message
-			return BlockchainTransactionStatusDto.fail(null);
+			return getTransactionStatus(optionalReceipt.get());
 		} catch (IOException e) {
 			logger.warning("IOException in checking transaction status, transactionHash: " + transactionHash);
 			throw new RuntimeException(e);
 		}
 	}
 	
+	public static BlockchainTransactionStatusDto getTransactionStatus(TransactionReceipt transactionReceipt) {
+		if (Numeric.toBigInt(transactionReceipt.getStatus()).intValue() == 1) {
+			return BlockchainTransactionStatusDto.success();
+		}
+		//TODO set some meaningful error message
+		return BlockchainTransactionStatusDto.fail(null);
+	}
+	
 	public static BigInteger getSCTBalance(String address) {
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
+		return BlockchainReadCache.get(sctBalanceCacheKey(address), BlockchainReadCache.BALANCE_TTL_MILLIS, () -> loadSCTBalance(address));
+	}
+
+	public static String sctBalanceCacheKey(String address) {
+		return BlockchainReadCache.key(Constants.SCT_CONTRACT_ADDRESS, "balanceOf", address);
+	}
+
+	public static String iicListCacheKey(String address) {
+		return BlockchainReadCache.key(Constants.IIC_CONTRACT_ADDRESS, "getIIC", address);
+	}
+
+	/**
+	 * Invalidates cached reads changed by confirmed purchase: IIC owner, IIC lists and SCT balances of seller and buyer.
+	 * Should be called when purchase transaction is mined, not when it is sent.
+	 */
+	public static void invalidatePurchaseCaches(String blockchainId, String sellerAddress, String buyerAddress) {
+		if (blockchainId != null) {
+			BlockchainReadCache.invalidate(ownerOfIICCacheKey(blockchainId));
+		}
+		for (String address : Arrays.asList(sellerAddress, buyerAddress)) {
+			if (address != null) {
+				BlockchainReadCache.invalidate(sctBalanceCacheKey(address));
+				BlockchainReadCache.invalidate(iicListCacheKey(address));
+			}
+		}
+	}
+
+	/**
+	 * Invalidates cached reads changed by confirmed IIC owner change: IIC owner and IIC lists of previous and new owner.
+	 */
+	public static void invalidateOwnerChangeCaches(String blockchainId, String fromAddress, String toAddress) {
+		if (blockchainId != null) {
+			BlockchainReadCache.invalidate(ownerOfIICCacheKey(blockchainId));
+		}
+		for (String address : Arrays.asList(fromAddress, toAddress)) {
+			if (address != null) {
+				BlockchainReadCache.invalidate(iicListCacheKey(address));
+			}
+		}
+	}
+
+	/**
+	 * Returns first log of given contract in given logs which is ERC20 Transfer event of exactly given amount
+	 * to given address or null if there is no such log.
+	 */
+	public static Log findTransfer(List<Log> logs, String contractAddress, String toAddress, BigInteger amount) {
+		for (Log log : logs) {
+			List<String> topics = log.getTopics();
+			if (contractAddress.equalsIgnoreCase(log.getAddress()) && topics.size() == 3
+					&& TRANSFER_EVENT_TOPIC.equalsIgnoreCase(topics.get(0))
+					&& toAddress.equalsIgnoreCase(topicToAddress(topics.get(2)))
+					&& amount.equals(Numeric.toBigInt(log.getData()))) {
+				return log;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns sender address of ERC20 Transfer event log, which is its first indexed topic.
+	 */
+	public static String getTransferFrom(Log log) {
+		return topicToAddress(log.getTopics().get(1));
+	}
+
+	private static String topicToAddress(String topic) {
+		return "0x" + topic.substring(topic.length() - 40);
+	}
+
+	private static BigInteger loadSCTBalance(String address) {
+		Web3j web3 = Web3jProvider.getWeb3j();
 		Function function = new Function(
 			"balanceOf",
 			Arrays.asList(new Address(address)),
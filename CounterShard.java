@@ -0,0 +1,19 @@
+package pl.itcraft.soma.core.model.entities;
+
+/**
+ * Shard of counters of one owner entity. Keeps deltas not yet rolled up into the owner,
+ * shards with deltas are flagged as modified until roll up resets them.
+ */
+public interface CounterShard {
+
+	String getKey();
+
+	Long getOwnerId();
+
+	/**
+	 * Deltas not rolled up yet, in order defined by shard type.
+	 */
+	int[] getDeltas();
+
+	void reset();
+}
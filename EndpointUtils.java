@@ -3,11 +3,13 @@ package pl.itcraft.soma.api.endpoints;
 import javax.servlet.http.HttpServletRequest;
 
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.googlecode.objectify.ObjectifyService;
 
 import pl.itcraft.soma.core.Constants;
 import pl.itcraft.soma.core.error.ErrorStatus;
 import pl.itcraft.soma.core.model.entities.User;
 import pl.itcraft.soma.core.security.AccessStatus;
+import pl.itcraft.soma.core.security.AccessTokenCache;
 import pl.itcraft.soma.core.security.AppSecurityManager;
 import pl.itcraft.soma.core.security.AuthenticationResponse;
 
@@ -24,13 +26,47 @@ public class EndpointUtils {
 	public User authenticateUser(HttpServletRequest request) throws UnauthorizedException {
 		String accessToken = request.getHeader(Constants.AUTH_TOKEN_HEADER);
 
+		User cachedUser = loadUserByCachedToken(accessToken);
+		if (cachedUser != null) {
+			return cachedUser;
+		}
+
 		AuthenticationResponse response = securityManager.checkAccessTokenValidity(accessToken);
 
 		if (response.getStatus().equals(AccessStatus.ACCESS_GRANTED)) {
+			AccessTokenCache.put(accessToken, response.getUser().getId());
 			return response.getUser();
 		} else {
 			throw new UnauthorizedException(ErrorStatus.ACCESS_DENIED);
 		}
 	}
 
+	/**
+	 * Drops token of request from authentication cache, should be called when user logs out
+	 * or changes password or profile.
+	 */
+	public void invalidateAuthentication(HttpServletRequest request) {
+		AccessTokenCache.invalidate(request.getHeader(Constants.AUTH_TOKEN_HEADER));
+	}
+
+	/**
+	 * Loads user by key when token is cached, instead of querying users by token.
+	 * Returns null when token is not cached or no longer belongs to cached user.
+	 */
+	private User loadUserByCachedToken(String accessToken) {
+		if (accessToken == null || accessToken.isEmpty()) {
+			return null;
+		}
+		Long userId = AccessTokenCache.getUserId(accessToken);
+		if (userId == null) {
+			return null;
+		}
+		User user = ObjectifyService.ofy().load().type(User.class).id(userId).now();
+		if (user == null || !accessToken.equals(user.getAccessToken())) {
+			AccessTokenCache.invalidate(accessToken);
+			return null;
+		}
+		return user;
+	}
+
 }
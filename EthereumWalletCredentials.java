@@ -0,0 +1,58 @@
+package pl.itcraft.soma.core.utils;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import org.web3j.crypto.CipherException;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.WalletUtils;
+
+import pl.itcraft.soma.core.Constants;
+import pl.itcraft.soma.core.objectify.OfyHelper;
+
+/**
+ * Keeps decrypted credentials of server Ethereum wallet in memory. Keystore decryption (scrypt)
+ * is expensive, so it is done only on first use or on explicit {@link #reload()}.
+ */
+public class EthereumWalletCredentials {
+
+	private static final Logger logger = Logger.getLogger(EthereumWalletCredentials.class.getName());
+	private static final String WALLET_PATH = "WEB-INF/ethereum_wallet.json";
+
+	private static volatile Credentials credentials;
+
+	private EthereumWalletCredentials() {}
+
+	public static Credentials get() {
+		Credentials result = credentials;
+		if (result == null) {
+			synchronized (EthereumWalletCredentials.class) {
+				result = credentials;
+				if (result == null) {
+					result = credentials = load();
+				}
+			}
+		}
+		return result;
+	}
+
+	public static synchronized Credentials reload() {
+		credentials = load();
+		return credentials;
+	}
+
+	private static Credentials load() {
+		try {
+			long start = System.currentTimeMillis();
+			Credentials loaded = WalletUtils.loadCredentials(Constants.ETHEREUM_WALLET_PASSWORD, OfyHelper.getServletContext().getRealPath(WALLET_PATH));
+			logger.info("Ethereum wallet loaded in " + (System.currentTimeMillis() - start) + " ms, address: " + loaded.getAddress());
+			return loaded;
+		} catch (IOException e) {
+			logger.warning("IOException in reading ethereum wallet");
+			throw new RuntimeException(e);
+		} catch (CipherException e) {
+			logger.warning("CipherException in reading ethereum wallet");
+			throw new RuntimeException(e);
+		}
+	}
+}
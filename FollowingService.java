@@ -1,7 +1,9 @@
 package pl.itcraft.soma.core.service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.google.api.server.spi.response.BadRequestException;
@@ -12,6 +14,7 @@ import com.google.appengine.api.datastore.ReadPolicy.Consistency;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 
 import pl.itcraft.soma.core.Constants;
@@ -20,7 +23,10 @@ import pl.itcraft.soma.core.QueueUtils.UserAction;
 import pl.itcraft.soma.core.dto.FollowWithDateDto;
 import pl.itcraft.soma.core.error.ErrorStatus;
 import pl.itcraft.soma.core.model.entities.Following;
+import pl.itcraft.soma.core.model.entities.FollowingStringKey;
 import pl.itcraft.soma.core.model.entities.User;
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
+import pl.itcraft.soma.core.objectify.OfyBatchUtils;
 import pl.itcraft.soma.core.push.FcmPushType;
 import pl.itcraft.soma.core.search.SearchDocumentService;
 
@@ -29,60 +35,63 @@ public class FollowingService {
 	private final static Logger logger = Logger.getLogger(FollowingService.class.getName());
 	private final SearchDocumentService searchDocumentService = new SearchDocumentService();
 	private final NotificationService notificationService = new NotificationService();
+	private final MaintenanceJobService maintenanceJobService = new MaintenanceJobService();
+	private final UserCounterService userCounterService = new UserCounterService();
 	
 	public void createFollowing(final Long followerId, final Long followedId) throws BadRequestException {
 		if (followerId.equals(followedId)) {
 			throw new BadRequestException(ErrorStatus.UNABLE_FOLLOW_YOURSELF);
 		}
-		if (findFollowing(followerId, followedId) != null) {
+		if (findOrMigrateFollowing(followerId, followedId) != null) {
 			throw new BadRequestException(ErrorStatus.ALREADY_FOLLOWING);
 		}
 		if (!userWithIdExists(followedId)) {
 			throw new BadRequestException(ErrorStatus.USER_NOT_FOUND);
 		}
 		
-		ObjectifyService.ofy().transact(new VoidWork() {
+		// Checked again in transaction, so concurrent requests do not count the same following twice
+		boolean created = ObjectifyService.ofy().transact(new Work<Boolean>() {
 
 			@Override
-			public void vrun() {
-				incrementFollowingCounters(followerId, followedId);
-				ObjectifyService.ofy().save().entity(new Following(followerId, followedId)).now();
+			public Boolean run() {
+				if (findFollowing(followerId, followedId) != null) {
+					return false;
+				}
+				userCounterService.addFollowing(followerId, followedId, 1);
+				ObjectifyService.ofy().save().entity(new FollowingStringKey(followerId, followedId)).now();
+				return true;
 			}
 		});
+		if (!created) {
+			throw new BadRequestException(ErrorStatus.ALREADY_FOLLOWING);
+		}
+		userCounterService.invalidateCachedCounters(followerId, followedId);
 		notificationService.createAndEnqueueNotification(null, followerId, followedId, FcmPushType.USER_FOLLOWING, null);
 		searchDocumentService.enqueueUserAction(followerId, followedId, UserAction.FOLLOW);
 		searchDocumentService.enqueuePromotingAction(null, PromotingAction.FOLLOW, followerId, followedId);
 	}
 
-	private void incrementFollowingCounters(Long followerId, Long followedId) {
-		User follower = ObjectifyService.ofy().load().type(User.class).id(followerId).now();
-		follower.incrementNumberOfFollowings();
-		User followed = ObjectifyService.ofy().load().type(User.class).id(followedId).now();
-		followed.incrementNumberOfFollowers();
-		ObjectifyService.ofy().save().entities(follower, followed);
-	}
-
-	private void decrementFollowingCounters(Long followerId, Long followedId) {
-		User follower = ObjectifyService.ofy().load().type(User.class).id(followerId).now();
-		follower.decrementNumberOfFollowings();
-		User followed = ObjectifyService.ofy().load().type(User.class).id(followedId).now();
-		followed.decrementNumberOfFollowers();
-		ObjectifyService.ofy().save().entities(follower, followed);
-	}
-
 	public void deleteFollowing(final Long followerId, final Long followedId) throws BadRequestException {
-		final Following following = findFollowing(followerId, followedId);
-		if (following == null) {
+		if (findOrMigrateFollowing(followerId, followedId) == null) {
 			throw new BadRequestException(ErrorStatus.NO_FOLLOWING);
 		}
-		ObjectifyService.ofy().transact(new VoidWork() {
+		boolean deleted = ObjectifyService.ofy().transact(new Work<Boolean>() {
 
 			@Override
-			public void vrun() {
-				decrementFollowingCounters(followerId, followedId);
+			public Boolean run() {
+				FollowingStringKey following = findFollowing(followerId, followedId);
+				if (following == null) {
+					return false;
+				}
+				userCounterService.addFollowing(followerId, followedId, -1);
 				ObjectifyService.ofy().delete().entity(following).now();
+				return true;
 			}
 		});
+		if (!deleted) {
+			throw new BadRequestException(ErrorStatus.NO_FOLLOWING);
+		}
+		userCounterService.invalidateCachedCounters(followerId, followedId);
 		searchDocumentService.enqueueUserAction(followerId, followedId, UserAction.UNFOLLOW);
 		searchDocumentService.enqueuePromotingAction(null, PromotingAction.UNFOLLOW, followerId, followedId);
 
@@ -97,7 +106,7 @@ public class FollowingService {
 	}
 
 	private CollectionResponse<FollowWithDateDto> getFollowsList(Long userId, Integer limit, String nextPageToken, boolean findFollowings) {
-		Query<Following> followsQuery = ObjectifyService.ofy().load().type(Following.class)
+		Query<FollowingStringKey> followsQuery = ObjectifyService.ofy().load().type(FollowingStringKey.class)
 				.filter(findFollowings ? "followerId" : "followedId", userId).limit(limit != null && !limit.equals(0) ? limit : Constants.FRIENDS_LIMIT)
 				.order("creationDate");
 
@@ -105,13 +114,13 @@ public class FollowingService {
 			followsQuery = followsQuery.startAt(Cursor.fromWebSafeString(nextPageToken));
 		}
 
-		QueryResultIterator<Following> followsQueryIterator = followsQuery.iterator();
+		QueryResultIterator<FollowingStringKey> followsQueryIterator = followsQuery.iterator();
 
 		logger.info((findFollowings ? "Followed " : "Followers ") + followsQuery.toString());
 
 		List<Key<User>> ids = new ArrayList<Key<User>>();
 		while (followsQueryIterator.hasNext()) {
-			Following following = followsQueryIterator.next();
+			FollowingStringKey following = followsQueryIterator.next();
 			long followingUserId = findFollowings ? following.getFollowedId() : following.getFollowerId();
 			ids.add(Key.create(User.class, followingUserId));
 		}
@@ -143,70 +152,139 @@ public class FollowingService {
 		return builder.build();
 	}
 
-	private Following findFollowing(Long followerId, Long followedId) {
-		List<Following> followings = ObjectifyService.ofy().load().type(Following.class)
-				.filter("followerId", followerId).filter("followedId", followedId).list();
-		if (followings.isEmpty()) {
+	private FollowingStringKey findFollowing(Long followerId, Long followedId) {
+		return ObjectifyService.ofy().consistency(Consistency.STRONG).load().type(FollowingStringKey.class)
+				.id(FollowingStringKey.generateKey(followerId, followedId)).now();
+	}
+
+	/**
+	 * Same as {@link #findFollowing}, but when following is not found it looks for legacy {@link Following}
+	 * and migrates it. Used by write paths, so followings not backfilled yet are not duplicated or lost.
+	 * Once followings migration is finished, legacy followings are not looked for.
+	 */
+	private FollowingStringKey findOrMigrateFollowing(Long followerId, Long followedId) {
+		FollowingStringKey following = findFollowing(followerId, followedId);
+		if (following != null || maintenanceJobService.isFinished(MaintenanceJobType.MIGRATE_FOLLOWINGS)) {
+			return following;
+		}
+		final Following legacyFollowing = ObjectifyService.ofy().load().type(Following.class)
+				.filter("followerId", followerId).filter("followedId", followedId).first().now();
+		if (legacyFollowing == null) {
 			return null;
 		}
-		return followings.get(0);
+		final FollowingStringKey migratedFollowing = toFollowingStringKey(legacyFollowing);
+		ObjectifyService.ofy().transact(new VoidWork() {
+
+			@Override
+			public void vrun() {
+				ObjectifyService.ofy().save().entity(migratedFollowing).now();
+				ObjectifyService.ofy().delete().entity(legacyFollowing).now();
+			}
+		});
+		return migratedFollowing;
 	}
 
 	public Boolean isFollower(Long followerId, Long followedId) {
 		return findFollowing(followerId, followedId) != null;
 	}
 
+	/**
+	 * Checks with single batch get which of given users are followed by follower.
+	 */
+	public Map<Long, Boolean> areFollowers(Long followerId, List<Long> followedIds) {
+		List<String> keys = new ArrayList<>(followedIds.size());
+		for (Long followedId : followedIds) {
+			keys.add(FollowingStringKey.generateKey(followerId, followedId));
+		}
+		Map<String, FollowingStringKey> followings = ObjectifyService.ofy().consistency(Consistency.STRONG).load().type(FollowingStringKey.class).ids(keys);
+		Map<Long, Boolean> result = new HashMap<>();
+		for (Long followedId : followedIds) {
+			result.put(followedId, followings.containsKey(FollowingStringKey.generateKey(followerId, followedId)));
+		}
+		return result;
+	}
+
+	public void startFollowingsMigration() {
+		maintenanceJobService.start(MaintenanceJobType.MIGRATE_FOLLOWINGS, null);
+	}
+
+	/**
+	 * Copies legacy {@link Following} entities to {@link FollowingStringKey} and deletes them.
+	 * Followings already migrated by write paths are not overwritten.
+	 */
+	public int migrateFollowings(List<Following> legacyFollowings) {
+		List<String> keys = new ArrayList<>(legacyFollowings.size());
+		for (Following legacyFollowing : legacyFollowings) {
+			keys.add(FollowingStringKey.generateKey(legacyFollowing.getFollowerId(), legacyFollowing.getFollowedId()));
+		}
+		Map<String, FollowingStringKey> existing = ObjectifyService.ofy().load().type(FollowingStringKey.class).ids(keys);
+		Map<String, FollowingStringKey> followingsToSave = new HashMap<>();
+		for (Following legacyFollowing : legacyFollowings) {
+			FollowingStringKey following = toFollowingStringKey(legacyFollowing);
+			if (!existing.containsKey(following.getKey())) {
+				followingsToSave.put(following.getKey(), following);
+			}
+		}
+		OfyBatchUtils.save(new ArrayList<>(followingsToSave.values()));
+		OfyBatchUtils.delete(legacyFollowings);
+		return followingsToSave.size();
+	}
+
+	private FollowingStringKey toFollowingStringKey(Following legacyFollowing) {
+		FollowingStringKey following = new FollowingStringKey(legacyFollowing.getFollowerId(), legacyFollowing.getFollowedId());
+		following.setCreationDate(legacyFollowing.getCreationDate());
+		following.setIsFriend(legacyFollowing.getIsFriend());
+		return following;
+	}
+
 	private boolean userWithIdExists(Long userId) {
 		return ObjectifyService.ofy().load().type(User.class).filterKey(Key.create(User.class, userId)).count() == 1;
 	}
 
 	public void createFollowingForFriendship(final Long oneSideUserId, final Long reversedSideUserId) {
-		final Following oneSideFollowing = findFollowing(oneSideUserId, reversedSideUserId);
-		final Following reversedSideFollowing = findFollowing(reversedSideUserId, oneSideUserId);
+		findOrMigrateFollowing(oneSideUserId, reversedSideUserId);
+		findOrMigrateFollowing(reversedSideUserId, oneSideUserId);
 
 		ObjectifyService.ofy().transact(new VoidWork() {
 
 			@Override
 			public void vrun() {
-				User oneSideUser = ObjectifyService.ofy().consistency(Consistency.STRONG).load().type(User.class).id(oneSideUserId).now();
-				User reversedSideUser = ObjectifyService.ofy().consistency(Consistency.STRONG).load().type(User.class).id(reversedSideUserId).now();
-
-
-				Following oneSideFollowingToSave;
+				FollowingStringKey oneSideFollowing = findFollowing(oneSideUserId, reversedSideUserId);
+				FollowingStringKey reversedSideFollowing = findFollowing(reversedSideUserId, oneSideUserId);
+				FollowingStringKey oneSideFollowingToSave;
 				if (oneSideFollowing != null) {
 					oneSideFollowingToSave = oneSideFollowing;
 				} else {
-					oneSideFollowingToSave = new Following(oneSideUserId, reversedSideUserId);
-					oneSideUser.incrementNumberOfFollowings();
-					reversedSideUser.incrementNumberOfFollowers();
+					oneSideFollowingToSave = new FollowingStringKey(oneSideUserId, reversedSideUserId);
+					userCounterService.addFollowing(oneSideUserId, reversedSideUserId, 1);
 				}
 
 				oneSideFollowingToSave.setIsFriend(true);
 
-				Following reversedSideFollowingToSave;
+				FollowingStringKey reversedSideFollowingToSave;
 				if (reversedSideFollowing != null) {
 
 					reversedSideFollowingToSave = reversedSideFollowing;
 				} else {
-					reversedSideFollowingToSave = new Following(reversedSideUserId, oneSideUserId);
-					reversedSideUser.incrementNumberOfFollowings();
-					oneSideUser.incrementNumberOfFollowers();
+					reversedSideFollowingToSave = new FollowingStringKey(reversedSideUserId, oneSideUserId);
+					userCounterService.addFollowing(reversedSideUserId, oneSideUserId, 1);
 				}
 
 				reversedSideFollowingToSave.setIsFriend(true);
 
-				ObjectifyService.ofy().save().entities(oneSideFollowingToSave, reversedSideFollowingToSave, oneSideUser, reversedSideUser).now();
+				ObjectifyService.ofy().save().entities(oneSideFollowingToSave, reversedSideFollowingToSave).now();
 				
 			}
 		});
+		userCounterService.invalidateCachedCounters(oneSideUserId, reversedSideUserId);
 		notificationService.createAndEnqueueNotification(null, oneSideUserId, reversedSideUserId, FcmPushType.USER_FOLLOWING, null);
 		notificationService.createAndEnqueueNotification(null, reversedSideUserId, oneSideUserId, FcmPushType.USER_FOLLOWING, null);
 
 	}
 
 	public void removeIsFriendFlagFromFriendship(Long oneSideUserId, Long reversedSideUserId) {
-		Following oneSideFollowing = findFollowing(oneSideUserId, reversedSideUserId);
-		Following reversedSideFollowing = findFollowing(reversedSideUserId, oneSideUserId);
+		FollowingStringKey oneSideFollowing = findOrMigrateFollowing(oneSideUserId, reversedSideUserId);
+		FollowingStringKey reversedSideFollowing = findOrMigrateFollowing(reversedSideUserId, oneSideUserId);
 
 		oneSideFollowing.setIsFriend(false);
 		reversedSideFollowing.setIsFriend(false);
@@ -0,0 +1,83 @@
+package pl.itcraft.soma.core.model.entities;
+
+import java.util.Date;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+/**
+ * Following keyed by followerId and followedId, so existence checks are strongly consistent gets
+ * instead of queries. Replaces {@link Following}.
+ */
+@Entity
+public class FollowingStringKey {
+
+	@Id
+	private String key;
+
+	@Index
+	private Long followerId;
+
+	@Index
+	private Long followedId;
+
+	@Index
+	private Date creationDate;
+
+	private Boolean isFriend;
+
+	public FollowingStringKey() {}
+
+	public FollowingStringKey(Long followerId, Long followedId) {
+		this.key = generateKey(followerId, followedId);
+		this.followerId = followerId;
+		this.followedId = followedId;
+		this.creationDate = new Date();
+	}
+
+	public static String generateKey(Long followerId, Long followedId) {
+		return followerId + "_" + followedId;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public Date getCreationDate() {
+		return creationDate;
+	}
+
+	public void setCreationDate(Date creationDate) {
+		this.creationDate = creationDate;
+	}
+
+	public Long getFollowerId() {
+		return followerId;
+	}
+
+	public void setFollowerId(Long followerId) {
+		this.followerId = followerId;
+	}
+
+	public Long getFollowedId() {
+		return followedId;
+	}
+
+	public void setFollowedId(Long followedId) {
+		this.followedId = followedId;
+	}
+
+	public Boolean getIsFriend() {
+		return isFriend;
+	}
+
+	public void setIsFriend(Boolean isFriend) {
+		this.isFriend = isFriend;
+	}
+
+}
@@ -0,0 +1,11 @@
+package pl.itcraft.soma.core.model.enums;
+
+/**
+ * Friendship state between viewer and other user, seen from viewer side.
+ */
+public enum FriendshipRelation {
+	NONE,
+	INVITATION_SENT,
+	INVITATION_RECEIVED,
+	FRIENDS
+}
@@ -2,8 +2,10 @@ package pl.itcraft.soma.core.service;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +27,7 @@ import pl.itcraft.soma.core.dto.FriendUserDto;
 import pl.itcraft.soma.core.error.ErrorStatus;
 import pl.itcraft.soma.core.model.entities.Friendship;
 import pl.itcraft.soma.core.model.entities.User;
+import pl.itcraft.soma.core.model.enums.FriendshipRelation;
 import pl.itcraft.soma.core.model.enums.FriendshipStatus;
 import pl.itcraft.soma.core.push.FcmPushType;
 import pl.itcraft.soma.core.search.SearchDocumentService;
@@ -32,6 +35,8 @@ import pl.itcraft.soma.core.utils.FriendshipActions;
 
 public class FriendshipService {
 
+	private static final int IN_FILTER_MAX_VALUES = 30;
+
 	private final static Logger logger = Logger.getLogger(FriendshipService.class.getName());
 	private final SearchDocumentService searchDocumentService = new SearchDocumentService();
 	private final FollowingService followingService = new FollowingService();
@@ -148,6 +153,36 @@ public class FriendshipService {
 		return builder.build();
 	}
 	
+	/**
+	 * Returns relations of viewer with given users. Friendships are read with IN queries in chunks
+	 * of {@link #IN_FILTER_MAX_VALUES} users, instead of two queries per user.
+	 */
+	public Map<Long, FriendshipRelation> getFriendshipRelations(Long viewerId, List<Long> userIds) {
+		Map<Long, FriendshipRelation> result = new HashMap<>();
+		for (Long userId : userIds) {
+			result.put(userId, FriendshipRelation.NONE);
+		}
+		for (int from = 0; from < userIds.size(); from += IN_FILTER_MAX_VALUES) {
+			List<Long> chunk = userIds.subList(from, Math.min(from + IN_FILTER_MAX_VALUES, userIds.size()));
+			List<Friendship> sent = ObjectifyService.ofy().load().type(Friendship.class)
+					.filter("senderId", viewerId)
+					.filter("targetId in", chunk)
+					.list();
+			List<Friendship> received = ObjectifyService.ofy().load().type(Friendship.class)
+					.filter("targetId", viewerId)
+					.filter("senderId in", chunk)
+					.filter("status", FriendshipStatus.SENT)
+					.list();
+			for (Friendship friendship : received) {
+				result.put(friendship.getSenderId(), FriendshipRelation.INVITATION_RECEIVED);
+			}
+			for (Friendship friendship : sent) {
+				result.put(friendship.getTargetId(), friendship.getStatus() == FriendshipStatus.FRIENDS ? FriendshipRelation.FRIENDS : FriendshipRelation.INVITATION_SENT);
+			}
+		}
+		return result;
+	}
+
 	private void sendInvitation(Long senderId, Long targetId) {
 		Friendship newFriendship = new Friendship();
 		newFriendship.setSenderId(senderId);
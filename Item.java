@@ -27,6 +27,13 @@ public class Item extends BaseEntity {
 	private Boolean isDraft;
 
 	private Integer numberOfViews = 0;
+	private Integer numberOfLikes = 0;
+
+	// Pending IIC owner change, cached owner and IIC lists are invalidated when its transaction is indexed
+	@Index
+	private String changeOwnerTransactionHash;
+	private String changeOwnerFromAddress;
+	private String changeOwnerToAddress;
 
 	public Long getOwnerId() {
 		return ownerId;
@@ -106,6 +113,24 @@ public class Item extends BaseEntity {
 	public void setNumberOfViews(Integer numberOfViews) {
 		this.numberOfViews = numberOfViews;
 	}
+	public String getChangeOwnerTransactionHash() {
+		return changeOwnerTransactionHash;
+	}
+	public void setChangeOwnerTransactionHash(String changeOwnerTransactionHash) {
+		this.changeOwnerTransactionHash = changeOwnerTransactionHash;
+	}
+	public String getChangeOwnerFromAddress() {
+		return changeOwnerFromAddress;
+	}
+	public void setChangeOwnerFromAddress(String changeOwnerFromAddress) {
+		this.changeOwnerFromAddress = changeOwnerFromAddress;
+	}
+	public String getChangeOwnerToAddress() {
+		return changeOwnerToAddress;
+	}
+	public void setChangeOwnerToAddress(String changeOwnerToAddress) {
+		this.changeOwnerToAddress = changeOwnerToAddress;
+	}
 
 	public void addViews(Integer numberOfViews) {
 		if(this.numberOfViews == null) {
@@ -113,4 +138,26 @@ public class Item extends BaseEntity {
 		}
 		this.numberOfViews += (numberOfViews != null && numberOfViews >= 0) ? numberOfViews : 0;
 	}
+
+	public Integer getNumberOfLikes() {
+		return numberOfLikes != null ? numberOfLikes : 0;
+	}
+	public void setNumberOfLikes(Integer numberOfLikes) {
+		this.numberOfLikes = numberOfLikes;
+	}
+
+	public void incrementNumberOfLikes() {
+		addLikes(1);
+	}
+
+	public void decrementNumberOfLikes() {
+		addLikes(-1);
+	}
+
+	public void addLikes(Integer numberOfLikes) {
+		if(this.numberOfLikes == null) {
+			this.numberOfLikes = 0;
+		}
+		this.numberOfLikes = Math.max(0, this.numberOfLikes + (numberOfLikes != null ? numberOfLikes : 0));
+	}
 }
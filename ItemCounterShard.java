@@ -5,7 +5,7 @@ import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 
 @Entity
-public class ItemCounterShard {
+public class ItemCounterShard implements CounterShard {
 	@Id
 	private	String key;
 	@Index
@@ -41,5 +41,22 @@ public class ItemCounterShard {
 	public void incrementCounter() {
 		counter++;
 	}
+	public void add(int views) {
+		counter += views;
+		modified = true;
+	}
+	@Override
+	public Long getOwnerId() {
+		return itemId;
+	}
+	@Override
+	public int[] getDeltas() {
+		return new int[] { counter };
+	}
+	@Override
+	public void reset() {
+		counter = 0;
+		modified = false;
+	}
 
 }
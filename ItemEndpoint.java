@@ -88,11 +88,7 @@ public class ItemEndpoint {
 		try {
 			User user = endpointUtils.authenticateUser(request);
 			List<Item> items = itemService.getUserItems(user);
-			List<ItemDto> result = new ArrayList<>();
-			for(Item item : items) {
-				result.add(new ItemDto(item, itemService.getItemPhotos(item.getId())));
-			}
-			return result;
+			return toItemDtos(itemService.getItemContainers(items));
 		} catch (ServiceException e) {
 			throw e;
 		} catch (Exception e) {
@@ -115,11 +111,8 @@ public class ItemEndpoint {
 			@Named("nextPageToken") @Nullable String nextPageToken) throws ServiceException {
 		try {
 			User user = endpointUtils.authenticateUser(request);
-			CollectionResponse<Item> items = itemService.searchItems(keyword, category, latitude, longitude, minRange, maxRange, user, followersItems, friendsItems, nextPageToken, limit);
-			List<ItemDto> itemDtos = new ArrayList<>();
-			for(Item item : items.getItems()) {
-				itemDtos.add(new ItemDto(item, itemService.getItemPhotos(item.getId())));
-			}
+			CollectionResponse<ItemContainer> items = itemService.searchItemContainers(keyword, category, latitude, longitude, minRange, maxRange, user, followersItems, friendsItems, nextPageToken, limit);
+			List<ItemDto> itemDtos = toItemDtos(new ArrayList<>(items.getItems()));
 			return CollectionResponse.<ItemDto> builder().setItems(itemDtos).setNextPageToken(items.getNextPageToken()).build();
 		} catch (ServiceException e) {
 			throw e;
@@ -143,5 +136,12 @@ public class ItemEndpoint {
 		}
 	}
 
+	private List<ItemDto> toItemDtos(List<ItemContainer> itemContainers) {
+		List<ItemDto> result = new ArrayList<>(itemContainers.size());
+		for(ItemContainer itemContainer : itemContainers) {
+			result.add(new ItemDto(itemContainer.getItem(), itemContainer.getItemPhotos()));
+		}
+		return result;
+	}
 
 }
@@ -0,0 +1,77 @@
+package pl.itcraft.soma.core.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+
+import pl.itcraft.soma.core.model.entities.Item;
+import pl.itcraft.soma.core.model.entities.ItemLikeCounterShard;
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
+
+/**
+ * Item likes counters kept in {@link ItemLikeCounterShard}s, so likes of the same item do not contend
+ * on {@link Item} entity group. Changes are rolled up into {@link Item} periodically.
+ */
+public class ItemLikeCounterService {
+
+	private static final int NUMBER_OF_SHARDS = 20;
+	private static final int PENDING_LIKES_CACHE_SECONDS = 60;
+	private static final String PENDING_LIKES_CACHE_PREFIX = "itemLikeDeltas_";
+
+	private final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+	private final MaintenanceJobService maintenanceJobService = new MaintenanceJobService();
+	private final ShardedCounter<ItemLikeCounterShard, Item> shardedCounter = new ShardedCounter<ItemLikeCounterShard, Item>(
+			ItemLikeCounterShard.class, Item.class, "itemId", NUMBER_OF_SHARDS, 1) {
+
+		@Override
+		protected ItemLikeCounterShard createShard(String key, Long itemId) {
+			ItemLikeCounterShard shard = new ItemLikeCounterShard();
+			shard.setKey(key);
+			shard.setItemId(itemId);
+			return shard;
+		}
+
+		@Override
+		protected void addDeltas(Item item, int[] deltas) {
+			item.addLikes(deltas[0]);
+		}
+
+		@Override
+		protected void rolledUp(Long itemId) {
+			invalidateCachedLikes(itemId);
+		}
+	};
+
+	/**
+	 * Adds delta to random shard of item. Should be called in transaction saving or deleting the like itself,
+	 * followed by {@link #invalidateCachedLikes} after commit.
+	 */
+	public void addLikes(Long itemId, int delta) {
+		ItemLikeCounterShard shard = shardedCounter.loadRandomShard(itemId);
+		shard.add(delta);
+		ObjectifyService.ofy().save().entity(shard).now();
+	}
+
+	public void invalidateCachedLikes(Long itemId) {
+		memcacheService.delete(PENDING_LIKES_CACHE_PREFIX + itemId);
+	}
+
+	public int getNumberOfLikes(Item item) {
+		String cacheKey = PENDING_LIKES_CACHE_PREFIX + item.getId();
+		Integer pendingLikes = (Integer) memcacheService.get(cacheKey);
+		if (pendingLikes == null) {
+			pendingLikes = shardedCounter.sumDeltas(item.getId())[0];
+			memcacheService.put(cacheKey, pendingLikes, Expiration.byDeltaSeconds(PENDING_LIKES_CACHE_SECONDS));
+		}
+		return Math.max(0, item.getNumberOfLikes() + pendingLikes);
+	}
+
+	public void startCountersRollUp() {
+		maintenanceJobService.start(MaintenanceJobType.ROLL_UP_ITEM_LIKE_COUNTERS, null);
+	}
+
+	public ShardedCounter<ItemLikeCounterShard, Item> getShardedCounter() {
+		return shardedCounter;
+	}
+}
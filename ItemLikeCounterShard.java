@@ -0,0 +1,62 @@
+package pl.itcraft.soma.core.model.entities;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+/**
+ * Shard of item likes counter. Keeps likes and unlikes not yet rolled up into {@link Item}.
+ */
+@Entity
+public class ItemLikeCounterShard implements CounterShard {
+	@Id
+	private	String key;
+	@Index
+	private Long itemId;
+	@Index
+	private Boolean modified = false;
+	private Integer delta = 0;
+
+	public String getKey() {
+		return key;
+	}
+	public void setKey(String key) {
+		this.key = key;
+	}
+	public Long getItemId() {
+		return itemId;
+	}
+	public void setItemId(Long itemId) {
+		this.itemId = itemId;
+	}
+	public Boolean getModified() {
+		return modified;
+	}
+	public void setModified(Boolean modified) {
+		this.modified = modified;
+	}
+	public Integer getDelta() {
+		return delta;
+	}
+	public void setDelta(Integer delta) {
+		this.delta = delta;
+	}
+	public void add(int delta) {
+		this.delta += delta;
+		modified = true;
+	}
+	@Override
+	public Long getOwnerId() {
+		return itemId;
+	}
+	@Override
+	public int[] getDeltas() {
+		return new int[] { delta };
+	}
+	@Override
+	public void reset() {
+		delta = 0;
+		modified = false;
+	}
+
+}
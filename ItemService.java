@@ -8,9 +8,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collector;
@@ -25,29 +27,25 @@ import org.web3j.abi.datatypes.Function;
 import org.web3j.abi.datatypes.Type;
 import org.web3j.abi.datatypes.Utf8String;
 import org.web3j.abi.datatypes.generated.Uint256;
-import org.web3j.crypto.CipherException;
-import org.web3j.crypto.Credentials;
-import org.web3j.crypto.RawTransaction;
-import org.web3j.crypto.TransactionEncoder;
-import org.web3j.crypto.WalletUtils;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
 import org.web3j.protocol.core.methods.request.Transaction;
 import org.web3j.protocol.core.methods.response.EthCall;
-import org.web3j.protocol.http.HttpService;
-import org.web3j.utils.Numeric;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
 
 import com.google.api.server.spi.response.CollectionResponse;
-import com.google.appengine.api.blobstore.BlobKey;
-import com.google.appengine.api.blobstore.BlobstoreService;
-import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
 import com.google.appengine.api.datastore.ReadPolicy.Consistency;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
 
 import pl.itcraft.soma.core.Constants;
 import pl.itcraft.soma.core.QueueUtils;
@@ -65,28 +63,38 @@ import pl.itcraft.soma.core.model.entities.ItemPhoto;
 import pl.itcraft.soma.core.model.entities.PhotoFile;
 import pl.itcraft.soma.core.model.entities.Promotion;
 import pl.itcraft.soma.core.model.entities.SearchKeyword;
+import pl.itcraft.soma.core.model.entities.SearchKeywordStringKey;
 import pl.itcraft.soma.core.model.entities.User;
 import pl.itcraft.soma.core.model.entities.messages.BuyingConversation;
 import pl.itcraft.soma.core.model.entities.messages.Message;
 import pl.itcraft.soma.core.model.enums.Category;
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
 import pl.itcraft.soma.core.model.enums.MessageType;
 import pl.itcraft.soma.core.model.enums.PriceUnit;
-import pl.itcraft.soma.core.objectify.OfyHelper;
+import pl.itcraft.soma.core.objectify.OfyBatchUtils;
 import pl.itcraft.soma.core.objectify.OfyUtils;
 import pl.itcraft.soma.core.search.SearchDocumentService;
 import pl.itcraft.soma.core.search.SearchEntityDocument;
+import pl.itcraft.soma.core.utils.BlockchainReadCache;
 import pl.itcraft.soma.core.utils.BlockchainTransactionStatus;
 import pl.itcraft.soma.core.utils.BlockchainUtils;
 import pl.itcraft.soma.core.utils.ItemActions;
+import pl.itcraft.soma.core.utils.SearchKeywordBuffer;
+import pl.itcraft.soma.core.utils.TransactionReceiptPoller;
+import pl.itcraft.soma.core.utils.Web3jProvider;
 import pl.itcraft.soma.core.validators.ItemValidator;
 import pl.itcraft.soma.core.validators.ValidationErrors;
 
 public class ItemService {
 
-	private final BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
 	private final Logger logger = Logger.getLogger(ItemService.class.getName());
 	private final SearchDocumentService searchDocumentService = new SearchDocumentService();
 	private final UserService userService = new UserService();
+	private final BlobCleanupService blobCleanupService = new BlobCleanupService();
+	private final MaintenanceJobService maintenanceJobService = new MaintenanceJobService();
+	private final UserCounterService userCounterService = new UserCounterService();
+	private final ItemLikeCounterService itemLikeCounterService = new ItemLikeCounterService();
+	private final ItemViewCounterService itemViewCounterService = new ItemViewCounterService();
 
 	public ItemPhoto saveItemPhoto(User user, PhotoFile photoFile, Integer height, Integer width) {
 		ItemPhoto itemPhoto = new ItemPhoto();
@@ -120,10 +128,13 @@ public class ItemService {
 		if (photoIds != null && photoIds.size() > Constants.ITEM_PHOTOS_LIMIT) {
 			throw new ApiException(EC.BAD_REQUEST, ErrorStatus.TOO_MUCH_PHOTOS);
 		}
+		final Map<Long, ItemPhoto> photos = photoIds != null && !photoIds.isEmpty()
+				? ObjectifyService.ofy().load().type(ItemPhoto.class).ids(photoIds)
+				: Collections.<Long, ItemPhoto>emptyMap();
 		if (photoIds != null) {
 			// Check if user provided valid photoIds
 			for (Long photoId : photoIds) {
-				ItemPhoto photo = ObjectifyService.ofy().load().type(ItemPhoto.class).id(photoId).now();
+				ItemPhoto photo = photos.get(photoId);
 				// In case when photo does not exists or its not Users photo throw ApiException
 				if (photo == null || !photo.getUserId().equals(user.getId())) {
 					throw new ApiException(EC.NOT_FOUND, ErrorStatus.PHOTO_NOT_FOUND);
@@ -173,7 +184,6 @@ public class ItemService {
 		new ItemValidator().validateItem(errors, item);
 		ApiException.throwIfHasErrors(errors);
 
-		final List<String> keysToDelete = new ArrayList<>();
 		final List<ItemPhoto> oldItemPhotos = id != null
 				? ObjectifyService.ofy().load().type(ItemPhoto.class).filter("itemId", item.getId()).list()
 				: null;
@@ -202,31 +212,33 @@ public class ItemService {
 
 				// Delete entity of old photos if its not used anymore
 				if (oldItemPhotos != null && !oldItemPhotos.isEmpty()) {
+					List<String> keysToDelete = new ArrayList<>();
+					List<ItemPhoto> photosToDelete = new ArrayList<>();
 					for (ItemPhoto itemPhoto : oldItemPhotos) {
 						if (photoIds == null || !photoIds.contains(itemPhoto.getId())) {
 							keysToDelete.add(itemPhoto.getFileKey());
-							ObjectifyService.ofy().delete().entity(itemPhoto).now();
+							photosToDelete.add(itemPhoto);
 						}
 					}
+					if (!photosToDelete.isEmpty()) {
+						ObjectifyService.ofy().delete().entities(photosToDelete);
+						// Blobs are deleted by background task enqueued only when transaction commits
+						blobCleanupService.enqueueBlobsDeletion(keysToDelete);
+					}
 				}
 				if (photoIds != null) {
-					// Connect ItemPhoto with Item
+					// Connect ItemPhoto with Item, photos were already loaded during validation
 					for (Long photoId : photoIds) {
-						ItemPhoto photo = ObjectifyService.ofy().load().type(ItemPhoto.class).id(photoId).now();
+						ItemPhoto photo = photos.get(photoId);
 						photo.setItemId(item.getId());
-						ObjectifyService.ofy().save().entity(photo).now();
 						currentItemPhotos.add(photo);
 					}
+					ObjectifyService.ofy().save().entities(currentItemPhotos);
 				}
 				return item;
 			}
 		});
 
-		// Delete photos from Blobstore
-		for (String key : keysToDelete) {
-			blobstoreService.delete(new BlobKey(key));
-		}
-
 		if(shouldUpdate) {
 			searchDocumentService.updateSearchEntityDocumentGlobal(item);
 			searchDocumentService.enqueueItemAction(result, ItemAction.CREATE);
@@ -259,6 +271,46 @@ public class ItemService {
 		return ObjectifyService.ofy().load().type(ItemPhoto.class).ids(photoIds.stream().limit(limit).collect(Collectors.toList())).values();
 	}
 
+	/**
+	 * Hydrates items with their photos loaded with a single batch get.
+	 */
+	public List<ItemContainer> getItemContainers(List<Item> items) {
+		Map<Long, ItemPhoto> loadedPhotos = startItemsPhotosLoad(items);
+
+		List<ItemContainer> result = new ArrayList<>(items.size());
+		for(Item item : items) {
+			result.add(new ItemContainer(item, collectItemPhotos(item, loadedPhotos)));
+		}
+		return result;
+	}
+
+	// Objectify starts batch get immediately, returned map blocks only when it is read
+	private Map<Long, ItemPhoto> startItemsPhotosLoad(List<Item> items) {
+		List<Long> photoIds = new ArrayList<>();
+		for(Item item : items) {
+			if(item.getPhotoIds() != null) {
+				photoIds.addAll(item.getPhotoIds());
+			}
+		}
+		if(photoIds.isEmpty()) {
+			return Collections.<Long, ItemPhoto>emptyMap();
+		}
+		return ObjectifyService.ofy().load().type(ItemPhoto.class).ids(photoIds);
+	}
+
+	private List<ItemPhoto> collectItemPhotos(Item item, Map<Long, ItemPhoto> loadedPhotos) {
+		List<ItemPhoto> itemPhotos = new ArrayList<>();
+		if(item.getPhotoIds() != null) {
+			for(Long photoId : item.getPhotoIds()) {
+				ItemPhoto photo = loadedPhotos.get(photoId);
+				if(photo != null) {
+					itemPhotos.add(photo);
+				}
+			}
+		}
+		return itemPhotos;
+	}
+
 	public CollectionResponse<Item> getUserItems(User user, Integer limit, String nextPageToken, boolean withoutDrafts) {
 		if(limit == null || limit > Constants.USER_ITEMS_MAX_LIMIT) {
 			limit = Constants.USER_ITEMS_MAX_LIMIT;
@@ -273,7 +325,12 @@ public class ItemService {
 	}
 	
 	public List<BlockchainIICDto> getIIC(User user) {
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
+		return BlockchainReadCache.get(BlockchainUtils.iicListCacheKey(user.getEthereumAddress()), BlockchainReadCache.IIC_LIST_TTL_MILLIS,
+				() -> Collections.unmodifiableList(loadIIC(user)));
+	}
+
+	private List<BlockchainIICDto> loadIIC(User user) {
+		Web3j web3 = Web3jProvider.getWeb3j();
 		
 		Function function = new Function(
 				"balanceOf",
@@ -287,9 +344,18 @@ public class ItemService {
 			if (tokensAmount == 0) {
 				return Collections.<BlockchainIICDto>emptyList();
 			}
+			List<Function> functions = new ArrayList<>(tokensAmount);
+			List<Request<?, EthCall>> requests = new ArrayList<>(tokensAmount);
+			for (int i = 0; i < tokensAmount; i++) {
+				Function dataFunction = getIICDataOfOwnerByIndexFunction(user.getEthereumAddress(), i);
+				functions.add(dataFunction);
+				requests.add(web3.ethCall(Transaction.createEthCallTransaction(user.getEthereumAddress(), Constants.IIC_CONTRACT_ADDRESS, FunctionEncoder.encode(dataFunction)), DefaultBlockParameterName.LATEST));
+			}
+			// All indexes are requested concurrently instead of one round-trip per token
+			List<EthCall> responses = BlockchainUtils.sendConcurrently(requests, BlockchainUtils.NODE_CONCURRENT_REQUESTS);
 			List<BlockchainIICDto> result = new ArrayList<>(tokensAmount);
 			for (int i = 0; i < tokensAmount; i++) {
-				result.add(getIICDataOfOwnerByIndex(web3, user.getEthereumAddress(), i));
+				result.add(decodeIICData(functions.get(i), responses.get(i)));
 			}
 			return result;
 		} catch (IOException e) {
@@ -298,25 +364,21 @@ public class ItemService {
 		}
 	}
 	
-	private BlockchainIICDto getIICDataOfOwnerByIndex(Web3j web3, String owner, int index) {
-		Function function = new Function(
+	private Function getIICDataOfOwnerByIndexFunction(String owner, int index) {
+		return new Function(
 				"getIICDataOfOwnerByIndex",
 				Arrays.asList(new Address(owner), new Uint256(index)),
 				Arrays.asList(new TypeReference<Uint256>(){}, new TypeReference<Utf8String>(){}));
-		String encodedFunction = FunctionEncoder.encode(function);
-		try {
-			EthCall response = web3.ethCall(Transaction.createEthCallTransaction(owner, Constants.IIC_CONTRACT_ADDRESS, encodedFunction), DefaultBlockParameterName.LATEST).send();
-			List<Type> results = FunctionReturnDecoder.decode(response.getValue(), function.getOutputParameters());
-			if (results.isEmpty()) {
-				return new BlockchainIICDto();
-			}
-			BigInteger tokenId = ((Uint256)results.get(0)).getValue();
-			String name = ((Utf8String)results.get(1)).getValue();
-			return new BlockchainIICDto(tokenId, name);
-		} catch (IOException e) {
-			logger.warning("IOException in sending transaction to blockchain");
-			throw new RuntimeException(e);
+	}
+
+	private BlockchainIICDto decodeIICData(Function function, EthCall response) {
+		List<Type> results = FunctionReturnDecoder.decode(response.getValue(), function.getOutputParameters());
+		if (results.isEmpty()) {
+			return new BlockchainIICDto();
 		}
+		BigInteger tokenId = ((Uint256)results.get(0)).getValue();
+		String name = ((Utf8String)results.get(1)).getValue();
+		return new BlockchainIICDto(tokenId, name);
 	}
 	
 	public void purchaseItemWithSCT(User user, Long acceptedOfferId, String approveSCTTransaction, String finalizeOfferTransaction) throws ApiException {
@@ -350,49 +412,57 @@ public class ItemService {
 			logger.warning("User id: " + newOwner.getId() + " has empty ethereumAddress");
 			return;
 		}
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
 		Function function = new Function(
 			"changeOwner",
 			Arrays.asList(new Uint256(new BigInteger(item.getBlockchainId())), new Address(newOwner.getEthereumAddress())),
 			Collections.<TypeReference<?>>emptyList()
 			);
-		try {
-			Credentials credentials = WalletUtils.loadCredentials(Constants.ETHEREUM_WALLET_PASSWORD, OfyHelper.getServletContext().getRealPath("WEB-INF/ethereum_wallet.json"));
-			BigInteger nonce = BlockchainUtils.getNextAvailableNonce(web3, credentials.getAddress());
-			RawTransaction rawTransaction = RawTransaction.createTransaction(nonce, Constants.GAS_PRICE, Constants.GAS_LIMIT, Constants.IIC_CONTRACT_ADDRESS, FunctionEncoder.encode(function));
-			byte[] signedTransaction = TransactionEncoder.signMessage(rawTransaction, credentials);
-			BlockchainUtils.sendTransaction(Numeric.toHexString(signedTransaction));
-		} catch (IOException e) {
-			logger.warning("IOException in reading ethereum wallet");
-			throw new RuntimeException(e);
-		} catch (CipherException e) {
-			logger.warning("CipherException in reading ethereum wallet");
-			throw new RuntimeException(e);
-		}
+		User previousOwner = ObjectifyService.ofy().load().type(User.class).id(item.getOwnerId()).now();
+		String transactionHash = BlockchainUtils.sendServerSignedTransaction(Constants.IIC_CONTRACT_ADDRESS, function);
+		// Cached owner and IIC lists are invalidated by confirmOwnerChanges when transaction is indexed
+		item.setChangeOwnerTransactionHash(transactionHash);
+		item.setChangeOwnerFromAddress(previousOwner != null ? previousOwner.getEthereumAddress() : null);
+		item.setChangeOwnerToAddress(newOwner.getEthereumAddress());
+		ObjectifyService.ofy().save().entity(item).now();
 	}
 
 	public void proceedDeleteUnusedPhotos() {
+		maintenanceJobService.start(MaintenanceJobType.DELETE_UNUSED_PHOTOS, null);
+	}
 
-		Date date = DateTime.now().minusHours(Constants.UNUSED_PHOTO_EXPIRATION_TIME).toDate();
+	/**
+	 * Photos not connected with any item, created before given date. Cleanup iterates it keys only
+	 * and loads photos in batches.
+	 */
+	public Query<ItemPhoto> unusedPhotosQuery(Date createdBefore) {
+		return ObjectifyService.ofy().load().type(ItemPhoto.class)
+				.filter("creationDate <", createdBefore)
+				.filter("itemId", null);
+	}
 
-		Map<String, Object> queryParams = new HashMap<>();
-		queryParams.put("creationDate < ", date);
-		queryParams.put("itemId", null);
-
-		int counter = 0;
-		CollectionResponse<ItemPhoto> itemPhotos = OfyUtils.listPagedEntities(queryParams, null, Constants.DELETE_UNUSED_PHOTOS_BATCH_SIZE, null, ItemPhoto.class);
-		while(itemPhotos != null && itemPhotos.getItems() != null && !itemPhotos.getItems().isEmpty()){
-			for(ItemPhoto itemPhoto : itemPhotos.getItems()) {
-				if(itemPhoto.getFileKey() != null) {
-					blobstoreService.delete(new BlobKey(itemPhoto.getFileKey()));
-					ObjectifyService.ofy().delete().entity(itemPhoto).now();
-					counter++;
-				}
+	/**
+	 * Loads given photos with one batch get, enqueues deletion of blobs of photos still not connected
+	 * with any item in background batches and then deletes those photo entities with single batch delete.
+	 * Photos connected by saveItem after the query ran are skipped. If entity delete fails, chunk is retried
+	 * and blob deletion is enqueued again, which is harmless for already deleted blobs.
+	 */
+	public int deleteUnusedPhotos(List<Key<ItemPhoto>> photoKeys) {
+		Map<Key<ItemPhoto>, ItemPhoto> itemPhotos = ObjectifyService.ofy().load().keys(photoKeys);
+		List<Key<ItemPhoto>> keysToDelete = new ArrayList<>();
+		List<String> fileKeys = new ArrayList<>();
+		for(Map.Entry<Key<ItemPhoto>, ItemPhoto> entry : itemPhotos.entrySet()) {
+			ItemPhoto itemPhoto = entry.getValue();
+			if(itemPhoto.getItemId() != null) {
+				continue;
+			}
+			keysToDelete.add(entry.getKey());
+			if(itemPhoto.getFileKey() != null) {
+				fileKeys.add(itemPhoto.getFileKey());
 			}
-			itemPhotos = OfyUtils.listPagedEntities(queryParams, null, Constants.DELETE_UNUSED_PHOTOS_BATCH_SIZE, itemPhotos.getNextPageToken(), ItemPhoto.class);
 		}
-		logger.info("Successfully deleted unused item photos : " + counter);
-
+		blobCleanupService.enqueueBlobsDeletion(fileKeys);
+		OfyBatchUtils.deleteKeys(keysToDelete);
+		return keysToDelete.size();
 	}
 
 	public CollectionResponse<Item> searchItems(String keyword, Category category, Double latitude, Double longitude, Integer minRange, Integer maxRange, User user, Boolean followersItems, Boolean friendsItems, String nextPageToken, Integer limit){
@@ -405,15 +475,81 @@ public class ItemService {
 		}
 
 		Date d3 = new Date();
-		List<Item> items = new ArrayList<>();
-		for(SearchEntityDocument searchEntityDocument : searchEntityDocuments.getItems()) {
-			items.add(ObjectifyService.ofy().load().type(Item.class).id(Long.valueOf(searchEntityDocument.getId())).now());
-		}
+		List<Item> items = loadSearchedItems(searchEntityDocuments.getItems());
 		Date d4 = new Date();
 		logger.info("load item entities from datastore and map : " + (d4.getTime() - d3.getTime()));
 		return CollectionResponse.<Item> builder().setItems(items).setNextPageToken(searchEntityDocuments.getNextPageToken()).build();
 	}
 
+	/**
+	 * Same as {@link #searchItems} but returns items hydrated with photos.
+	 */
+	public CollectionResponse<ItemContainer> searchItemContainers(String keyword, Category category, Double latitude, Double longitude, Integer minRange, Integer maxRange, User user, Boolean followersItems, Boolean friendsItems, String nextPageToken, Integer limit){
+		Date d1 = new Date();
+		CollectionResponse<SearchEntityDocument> searchEntityDocuments = searchDocumentService.searchEntities(keyword, category, latitude, longitude, minRange, maxRange, user, followersItems, friendsItems, nextPageToken, limit);
+		Date d2 = new Date();
+		logger.info("searchEntities searchApi : " + (d2.getTime() - d1.getTime()));
+		if(searchEntityDocuments == null || searchEntityDocuments.getItems() == null) {
+			return CollectionResponse.<ItemContainer> builder().setItems(new ArrayList<ItemContainer>(0)).build();
+		}
+
+		Date d3 = new Date();
+		List<ItemContainer> itemContainers = loadSearchedItemContainers(searchEntityDocuments.getItems());
+		Date d4 = new Date();
+		logger.info("load item entities and photos from datastore : " + (d4.getTime() - d3.getTime()));
+		return CollectionResponse.<ItemContainer> builder().setItems(itemContainers).setNextPageToken(searchEntityDocuments.getNextPageToken()).build();
+	}
+
+	/**
+	 * Starts batch get of items and batch get of their photos together, photo ids are taken from search documents.
+	 * Photos of items indexed before their photos changed are loaded by second batch get once items are read.
+	 */
+	private List<ItemContainer> loadSearchedItemContainers(Collection<SearchEntityDocument> searchEntityDocuments) {
+		List<Long> ids = new ArrayList<>(searchEntityDocuments.size());
+		Set<Long> indexedPhotoIds = new HashSet<>();
+		for(SearchEntityDocument searchEntityDocument : searchEntityDocuments) {
+			ids.add(Long.valueOf(searchEntityDocument.getId()));
+			if(searchEntityDocument.getPhotoIds() != null) {
+				indexedPhotoIds.addAll(searchEntityDocument.getPhotoIds());
+			}
+		}
+		if(ids.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		// Objectify starts both batch gets immediately, returned maps block only when they are read
+		Map<Long, Item> loadedItems = ObjectifyService.ofy().load().type(Item.class).ids(ids);
+		Map<Long, ItemPhoto> indexedPhotos = indexedPhotoIds.isEmpty()
+				? Collections.<Long, ItemPhoto>emptyMap()
+				: ObjectifyService.ofy().load().type(ItemPhoto.class).ids(indexedPhotoIds);
+
+		List<Item> items = new ArrayList<>(ids.size());
+		List<Long> notIndexedPhotoIds = new ArrayList<>();
+		for(Long id : ids) {
+			Item item = loadedItems.get(id);
+			if(item == null) {
+				continue;
+			}
+			items.add(item);
+			if(item.getPhotoIds() != null) {
+				for(Long photoId : item.getPhotoIds()) {
+					if(!indexedPhotoIds.contains(photoId)) {
+						notIndexedPhotoIds.add(photoId);
+					}
+				}
+			}
+		}
+		Map<Long, ItemPhoto> loadedPhotos = new HashMap<>(indexedPhotos);
+		if(!notIndexedPhotoIds.isEmpty()) {
+			loadedPhotos.putAll(ObjectifyService.ofy().load().type(ItemPhoto.class).ids(notIndexedPhotoIds));
+		}
+
+		List<ItemContainer> result = new ArrayList<>(items.size());
+		for(Item item : items) {
+			result.add(new ItemContainer(item, collectItemPhotos(item, loadedPhotos)));
+		}
+		return result;
+	}
+
 	public void publishDraftItem(Long id, User user) throws ApiException {
 		Item item = ObjectifyService.ofy().load().type(Item.class).id(id).now();
 
@@ -433,46 +569,52 @@ public class ItemService {
 	}
 
 	public void enqueueItemView(Long itemId) {
-		Queue queue = QueueFactory.getQueue(QueueUtils.ITEM_SHARD_QUEUE_NAME);
-		queue.add(TaskOptions.Builder.withUrl(QueueUtils.ITEM_SHARD_QUEUE_URL)
-				.param(QueueUtils.ITEM_ID_PARAMETER_NAME, itemId.toString())
-				);
+		itemViewCounterService.recordView(itemId);
 	}
 
 	public Item itemAction(User user, Long id, ItemActions itemAction) throws ApiException {
 		final Item item = getItem(id);
-		final ItemLikeStringKey itemLike;
+		final Long userId = user.getId();
+		// Like is checked in the same transaction as counter change, so concurrent requests change counter once
 		switch(itemAction) {
 		case LIKE:
-			final ItemLikeStringKey itemAlreadyLiked = findItemLike(id, user.getId());
-			if(itemAlreadyLiked != null) {
+			boolean liked = ObjectifyService.ofy().transact(() -> {
+				if (findItemLike(userId, id) != null) {
+					return false;
+				}
+				ItemLikeStringKey itemLike = new ItemLikeStringKey();
+				itemLike.setKey(generateItemLikeKey(id, userId));
+				itemLike.setItemId(item.getId());
+				itemLike.setUserId(userId);
+				itemLike.setCreationDate(new Date());
+				ObjectifyService.ofy().save().entity(itemLike).now();
+				itemLikeCounterService.addLikes(item.getId(), 1);
+				return true;
+			});
+			if(!liked) {
 				throw new ApiException(EC.NOT_FOUND, ErrorStatus.ITEM_ALREADY_LIKED);
 			}
-			itemLike = new ItemLikeStringKey();
-			itemLike.setKey(generateItemLikeKey(id, user.getId()));
-			itemLike.setItemId(item.getId());
-			itemLike.setUserId(user.getId());
-			itemLike.setCreationDate(new Date());
-			item.incrementNumberOfLikes();
-			 ObjectifyService.ofy().transact(() -> {
-				ObjectifyService.ofy().save().entities(itemLike, item).now();
-			});
 			break;
 		case UNLIKE:
-			itemLike = findItemLike(user.getId(), id);
-			if(itemLike == null) {
-				throw new ApiException(EC.NOT_FOUND, ErrorStatus.ITEM_LIKE_NOT_FOUND);
-			}
-			item.decrementNumberOfLikes();
-			ObjectifyService.ofy().transact(() -> {
+			boolean unliked = ObjectifyService.ofy().transact(() -> {
+				ItemLikeStringKey itemLike = findItemLike(userId, id);
+				if (itemLike == null) {
+					return false;
+				}
 				ObjectifyService.ofy().delete().entity(itemLike).now();
-				ObjectifyService.ofy().save().entities(item).now();
+				itemLikeCounterService.addLikes(item.getId(), -1);
+				return true;
 			});
-
+			if(!unliked) {
+				throw new ApiException(EC.NOT_FOUND, ErrorStatus.ITEM_LIKE_NOT_FOUND);
+			}
 			break;
 		default:
 			break;
 		}
+		itemLikeCounterService.invalidateCachedLikes(item.getId());
+		// Returned item is not saved, its likes include changes not rolled up yet
+		item.setNumberOfLikes(itemLikeCounterService.getNumberOfLikes(item));
 		return item;
 	}
 
@@ -487,7 +629,23 @@ public class ItemService {
 	}
 
 	public Boolean isLiked(Long itemId, Long userId) {
-		return findItemLike(itemId, userId) != null;
+		return findItemLike(userId, itemId) != null;
+	}
+
+	/**
+	 * Checks with single batch get which of given items are liked by user.
+	 */
+	public Map<Long, Boolean> areLiked(Long userId, List<Long> itemIds) {
+		List<String> keys = new ArrayList<>(itemIds.size());
+		for (Long itemId : itemIds) {
+			keys.add(generateItemLikeKey(itemId, userId));
+		}
+		Map<String, ItemLikeStringKey> itemLikes = ObjectifyService.ofy().consistency(Consistency.STRONG).load().type(ItemLikeStringKey.class).ids(keys);
+		Map<Long, Boolean> result = new HashMap<>();
+		for (Long itemId : itemIds) {
+			result.put(itemId, itemLikes.containsKey(generateItemLikeKey(itemId, userId)));
+		}
+		return result;
 	}
 
 	public CollectionResponse<Item> getLikedItems(User user, String nextPageToken, Integer limit) {
@@ -523,102 +681,269 @@ public class ItemService {
 			return CollectionResponse.<Item> builder().setItems(new ArrayList<Item>(0)).build();
 		}
 
-		List<Item> items = new ArrayList<>();
-		for(SearchEntityDocument searchEntityDocument : searchEntityDocuments.getItems()) {
-			items.add(ObjectifyService.ofy().load().type(Item.class).id(Long.valueOf(searchEntityDocument.getId())).now());
-		}
+		List<Item> items = loadSearchedItems(searchEntityDocuments.getItems());
 		return CollectionResponse.<Item> builder().setItems(items).setNextPageToken(searchEntityDocuments.getNextPageToken()).build();
 	}
+
+	/**
+	 * Loads items of a search page with a single batch get, keeping search rank order.
+	 * Ids of items which no longer exist in datastore are skipped.
+	 */
+	private List<Item> loadSearchedItems(Collection<SearchEntityDocument> searchEntityDocuments) {
+		List<Long> ids = new ArrayList<>(searchEntityDocuments.size());
+		for(SearchEntityDocument searchEntityDocument : searchEntityDocuments) {
+			ids.add(Long.valueOf(searchEntityDocument.getId()));
+		}
+		return loadItemsInOrder(ids);
+	}
+
+	private List<Item> loadItemsInOrder(List<Long> ids) {
+		if(ids.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		Map<Long, Item> loadedItems = ObjectifyService.ofy().load().type(Item.class).ids(ids);
+		List<Item> items = new ArrayList<>(ids.size());
+		for(Long id : ids) {
+			Item item = loadedItems.get(id);
+			if(item != null) {
+				items.add(item);
+			}
+		}
+		return items;
+	}
 	
 	public void deleteExpiredItems() {
-		Date now = new Date();
-		Map<String, Object> queryParams = new HashMap<>();
-		queryParams.put("expirationDate <", now);
-		queryParams.put("isExpired", false);
-		
-		CollectionResponse<Item> expiredItems = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE, null, Item.class);
-		
-		while(expiredItems != null && expiredItems.getItems() != null && !expiredItems.getItems().isEmpty() && expiredItems.getNextPageToken() != null) {
-			for(Item item : expiredItems.getItems()) {
-				try {
-					searchDocumentService.deleteSearchEntityDocumentGlobal(item);
-					searchDocumentService.proceedDeleteItem(item);
-					searchDocumentService.proceedStopPromotingForExpiredItem(item);
-					item.setIsExpired(true);
-					
-					ObjectifyService.ofy().save().entity(item).now();
-				} catch (Exception e) {
-					logger.log(Level.WARNING, "An error occurred during deleting expired items", e);
-				}
+		maintenanceJobService.start(MaintenanceJobType.DELETE_EXPIRED_ITEMS, null);
+	}
+
+	public Query<Item> expiredItemsQuery(Date expiredBefore) {
+		return ObjectifyService.ofy().load().type(Item.class)
+				.filter("expirationDate <", expiredBefore)
+				.filter("isExpired", false);
+	}
+
+	public int expireItems(List<Item> expiredItems) {
+		List<Item> itemsToSave = new ArrayList<>();
+		for(Item item : expiredItems) {
+			try {
+				searchDocumentService.deleteSearchEntityDocumentGlobal(item);
+				searchDocumentService.proceedDeleteItem(item);
+				searchDocumentService.proceedStopPromotingForExpiredItem(item);
+				item.setIsExpired(true);
+				itemsToSave.add(item);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "An error occurred during deleting expired items", e);
 			}
-			expiredItems = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE, expiredItems.getNextPageToken(), Item.class);
 		}
+		OfyBatchUtils.save(itemsToSave);
+		return itemsToSave.size();
 	}
 	
+	/**
+	 * Records searched keyword in {@link SearchKeywordBuffer}, persisting is done in background by {@link #flushSearchKeywords}.
+	 */
 	public void saveSearchKeyword(String rawKeyword, User user) throws ApiException {
-		
-		String keyword = rawKeyword.trim().replaceAll("\\s+", " ").toLowerCase();
-		// no update for raw keyword ?
-		SearchKeyword keywordEntity = ObjectifyService.ofy().load().type(SearchKeyword.class)
-				.filter("userId", user.getId())
-				.filter("keyword", keyword)
-				.filter("searchIndex", user.getSearchHistoryIndex())
-				.first().now();
-		
-		if (keywordEntity == null) {
-			keywordEntity = new SearchKeyword();
-		
-			keywordEntity.setUserId(user.getId());
-			keywordEntity.setRawKeyword(rawKeyword);
-			keywordEntity.setKeyword(keyword);
-			keywordEntity.setSearchIndex(user.getSearchHistoryIndex());
+		String keyword = normalizeSearchKeyword(rawKeyword);
+		SearchKeywordStringKey keywordEntity = new SearchKeywordStringKey();
+		keywordEntity.setKey(SearchKeywordStringKey.generateKey(user.getId(), user.getSearchHistoryIndex(), keyword));
+		keywordEntity.setUserId(user.getId());
+		keywordEntity.setRawKeyword(rawKeyword);
+		keywordEntity.setKeyword(keyword);
+		keywordEntity.setSearchIndex(user.getSearchHistoryIndex());
+		keywordEntity.setSearchDate(new Date());
+
+		if (SearchKeywordBuffer.add(keywordEntity)) {
+			scheduleSearchKeywordsFlush(user.getId(), user.getSearchHistoryIndex());
 		}
+	}
 
-		keywordEntity.setSearchDate(new Date());
+	/**
+	 * Enqueues delayed flush of buffered search history. Task is named by user, search index and time window,
+	 * so it is scheduled at most once per window.
+	 */
+	private void scheduleSearchKeywordsFlush(Long userId, Integer searchIndex) {
+		long window = System.currentTimeMillis() / SearchKeywordBuffer.FLUSH_INTERVAL_MILLIS + 1;
+		try {
+			Queue queue = QueueFactory.getQueue(QueueUtils.UTILS_QUEUE_NAME);
+			queue.add(TaskOptions.Builder.withUrl(SearchKeywordBuffer.SEARCH_KEYWORDS_QUEUE_URL)
+					.taskName("search-keywords-" + userId + "-" + searchIndex + "-" + window)
+					.param(SearchKeywordBuffer.USER_ID_PARAMETER_NAME, userId.toString())
+					.param(SearchKeywordBuffer.SEARCH_INDEX_PARAMETER_NAME, searchIndex.toString())
+					.countdownMillis(SearchKeywordBuffer.FLUSH_INTERVAL_MILLIS));
+		} catch (TaskAlreadyExistsException e) {
+			// Flush of this search history is already scheduled
+		}
+	}
 
-		ObjectifyService.ofy().save().entity(keywordEntity).now();
+	/**
+	 * Persists keywords buffered for given search history, keywords of search history cleared in the meantime are dropped.
+	 */
+	public void flushSearchKeywords(Long userId, Integer searchIndex) {
+		User user = ObjectifyService.ofy().load().type(User.class).id(userId).now();
+		if (user == null || !Objects.equals(user.getSearchHistoryIndex(), searchIndex)) {
+			SearchKeywordBuffer.drop(userId, searchIndex);
+			return;
+		}
+		List<SearchKeywordStringKey> pending = SearchKeywordBuffer.getPending(userId, searchIndex);
+		saveLatestSearchKeywords(pending);
+		if (SearchKeywordBuffer.remove(userId, searchIndex, pending)) {
+			scheduleSearchKeywordsFlush(userId, searchIndex);
+		}
+	}
+
+	/**
+	 * Saves given keywords unless stored ones are newer. Existing rows are read with one batch get by key,
+	 * so no query is needed.
+	 */
+	private int saveLatestSearchKeywords(List<SearchKeywordStringKey> searchKeywords) {
+		Map<String, SearchKeywordStringKey> latest = new HashMap<>();
+		for (SearchKeywordStringKey searchKeyword : searchKeywords) {
+			SearchKeywordStringKey other = latest.get(searchKeyword.getKey());
+			if (other == null || other.getSearchDate().before(searchKeyword.getSearchDate())) {
+				latest.put(searchKeyword.getKey(), searchKeyword);
+			}
+		}
+		Map<String, SearchKeywordStringKey> existing = ObjectifyService.ofy().load().type(SearchKeywordStringKey.class).ids(latest.keySet());
+		List<SearchKeywordStringKey> keywordsToSave = new ArrayList<>();
+		for (SearchKeywordStringKey searchKeyword : latest.values()) {
+			SearchKeywordStringKey stored = existing.get(searchKeyword.getKey());
+			if (stored == null || stored.getSearchDate() == null || stored.getSearchDate().before(searchKeyword.getSearchDate())) {
+				keywordsToSave.add(searchKeyword);
+			}
+		}
+		OfyBatchUtils.save(keywordsToSave);
+		return keywordsToSave.size();
+	}
+
+	/**
+	 * Copies legacy {@link SearchKeyword} rows of current search histories to {@link SearchKeywordStringKey}
+	 * and deletes legacy rows.
+	 */
+	public int migrateSearchKeywords(List<SearchKeyword> legacyKeywords) {
+		Set<Long> userIds = new HashSet<>();
+		for (SearchKeyword legacyKeyword : legacyKeywords) {
+			userIds.add(legacyKeyword.getUserId());
+		}
+		Map<Long, User> users = ObjectifyService.ofy().load().type(User.class).ids(userIds);
+		List<SearchKeywordStringKey> searchKeywords = new ArrayList<>();
+		for (SearchKeyword legacyKeyword : legacyKeywords) {
+			User user = users.get(legacyKeyword.getUserId());
+			// Older histories are already cleared by user, they are only deleted
+			if (user == null || !Objects.equals(user.getSearchHistoryIndex(), legacyKeyword.getSearchIndex()) || legacyKeyword.getSearchDate() == null) {
+				continue;
+			}
+			searchKeywords.add(toSearchKeywordStringKey(legacyKeyword));
+		}
+		int migrated = saveLatestSearchKeywords(searchKeywords);
+		OfyBatchUtils.delete(legacyKeywords);
+		return migrated;
+	}
+
+	public void startSearchKeywordsMigration() {
+		maintenanceJobService.start(MaintenanceJobType.MIGRATE_SEARCH_KEYWORDS, null);
+	}
+
+	private SearchKeywordStringKey toSearchKeywordStringKey(SearchKeyword legacyKeyword) {
+		String keyword = normalizeSearchKeyword(legacyKeyword.getRawKeyword() != null ? legacyKeyword.getRawKeyword() : legacyKeyword.getKeyword());
+		SearchKeywordStringKey searchKeyword = new SearchKeywordStringKey();
+		searchKeyword.setKey(SearchKeywordStringKey.generateKey(legacyKeyword.getUserId(), legacyKeyword.getSearchIndex(), keyword));
+		searchKeyword.setUserId(legacyKeyword.getUserId());
+		searchKeyword.setRawKeyword(legacyKeyword.getRawKeyword());
+		searchKeyword.setKeyword(keyword);
+		searchKeyword.setSearchIndex(legacyKeyword.getSearchIndex());
+		searchKeyword.setSearchDate(legacyKeyword.getSearchDate());
+		return searchKeyword;
+	}
+
+	private SearchKeyword toSearchKeyword(SearchKeywordStringKey searchKeyword) {
+		SearchKeyword result = new SearchKeyword();
+		result.setUserId(searchKeyword.getUserId());
+		result.setRawKeyword(searchKeyword.getRawKeyword());
+		result.setKeyword(searchKeyword.getKeyword());
+		result.setSearchIndex(searchKeyword.getSearchIndex());
+		result.setSearchDate(searchKeyword.getSearchDate());
+		return result;
+	}
+
+	private String normalizeSearchKeyword(String rawKeyword) {
+		return rawKeyword.trim().replaceAll("\\s+", " ").toLowerCase();
 	}
 	
+	/**
+	 * Returns persisted search history merged with keywords still buffered. Until search keywords migration
+	 * is finished, not migrated {@link SearchKeyword} rows are read too.
+	 */
 	public CollectionResponse<SearchKeyword> getSearchHistory(User user){
 		Map<String, Object> queryParams = new HashMap<>();
 		queryParams.put("userId", user.getId());
 		queryParams.put("searchIndex", user.getSearchHistoryIndex());
 		
-		return OfyUtils.listPagedEntities(queryParams, "-searchDate", Constants.SEARCH_ENGINE_SEARCH_HISTORY_SIZE, null, SearchKeyword.class);
+		CollectionResponse<SearchKeywordStringKey> searchHistory = OfyUtils.listPagedEntities(queryParams, "-searchDate", Constants.SEARCH_ENGINE_SEARCH_HISTORY_SIZE, null, SearchKeywordStringKey.class);
+		List<SearchKeywordStringKey> all = new ArrayList<>(SearchKeywordBuffer.getPending(user.getId(), user.getSearchHistoryIndex()));
+		if (searchHistory != null && searchHistory.getItems() != null) {
+			all.addAll(searchHistory.getItems());
+		}
+		if (!maintenanceJobService.isFinished(MaintenanceJobType.MIGRATE_SEARCH_KEYWORDS)) {
+			CollectionResponse<SearchKeyword> legacyHistory = OfyUtils.listPagedEntities(queryParams, "-searchDate", Constants.SEARCH_ENGINE_SEARCH_HISTORY_SIZE, null, SearchKeyword.class);
+			if (legacyHistory != null && legacyHistory.getItems() != null) {
+				for (SearchKeyword legacyKeyword : legacyHistory.getItems()) {
+					if (legacyKeyword.getSearchDate() != null) {
+						all.add(toSearchKeywordStringKey(legacyKeyword));
+					}
+				}
+			}
+		}
+
+		Map<String, SearchKeywordStringKey> keywords = new HashMap<>();
+		for (SearchKeywordStringKey searchKeyword : all) {
+			SearchKeywordStringKey current = keywords.get(searchKeyword.getKeyword());
+			if (current == null || current.getSearchDate().before(searchKeyword.getSearchDate())) {
+				keywords.put(searchKeyword.getKeyword(), searchKeyword);
+			}
+		}
+		List<SearchKeywordStringKey> merged = new ArrayList<>(keywords.values());
+		merged.sort((k1, k2) -> k2.getSearchDate().compareTo(k1.getSearchDate()));
+		List<SearchKeyword> result = new ArrayList<>();
+		for (SearchKeywordStringKey searchKeyword : merged.subList(0, Math.min(merged.size(), Constants.SEARCH_ENGINE_SEARCH_HISTORY_SIZE))) {
+			result.add(toSearchKeyword(searchKeyword));
+		}
+		return CollectionResponse.<SearchKeyword> builder().setItems(result).setNextPageToken(searchHistory != null ? searchHistory.getNextPageToken() : null).build();
 	}
 	
 	public void startSearchHistoryDeleting(User user) {
 
-		user.setSearchHistoryIndex(user.getSearchHistoryIndex() + 1);
+		Integer clearedSearchIndex = user.getSearchHistoryIndex();
+		user.setSearchHistoryIndex(clearedSearchIndex + 1);
 		
 		ObjectifyService.ofy().save().entity(user).now();
+		SearchKeywordBuffer.drop(user.getId(), clearedSearchIndex);
 
-		Queue queue = QueueFactory.getQueue(QueueUtils.UTILS_QUEUE_NAME);
-		queue.add(TaskOptions.Builder.withUrl(QueueUtils.UTILS_QUEUE_URL)
-				.param(QueueUtils.ACTION_PARAM_NAME, QueueUtils.DELETE_SEARCH_HISTORY_ACTION_NAME)
-				.param(QueueUtils.USER_ID_PARAMETER_NAME, user.getId().toString()));
-		
+		deleteSearchHistory(user);
 	}
 	
+	/**
+	 * Starts job deleting keywords from search histories older than current one.
+	 * Also called for delete search history tasks enqueued to utils queue.
+	 */
 	public void deleteSearchHistory(User user) {
-		Map<String, Object> queryParams = new HashMap<>();
-		queryParams.put("userId", user.getId());
-		queryParams.put("searchIndex <", user.getSearchHistoryIndex());
-		
-		CollectionResponse<SearchKeyword> searchKeywords = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_KEYWORDS_SIZE, null, SearchKeyword.class);
-		
-		while(searchKeywords != null && searchKeywords.getItems() != null && !searchKeywords.getItems().isEmpty() && searchKeywords.getNextPageToken() != null) {
-			for(SearchKeyword searchKeyword : searchKeywords.getItems()) {
-				ObjectifyService.ofy().delete().entity(searchKeyword).now();
-			}
-			searchKeywords = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_KEYWORDS_SIZE, searchKeywords.getNextPageToken(), SearchKeyword.class);
-		}
+		maintenanceJobService.start(MaintenanceJobType.DELETE_SEARCH_HISTORY, user.getId() + "_" + user.getSearchHistoryIndex());
+	}
+
+	public Query<SearchKeywordStringKey> searchHistoryToDeleteQuery(Long userId, Integer searchHistoryIndex) {
+		return ObjectifyService.ofy().load().type(SearchKeywordStringKey.class)
+				.filter("userId", userId)
+				.filter("searchIndex <", searchHistoryIndex);
+	}
+
+	public int deleteSearchKeywords(List<Key<SearchKeywordStringKey>> searchKeywordKeys) {
+		OfyBatchUtils.deleteKeys(searchKeywordKeys);
+		return searchKeywordKeys.size();
 	}
 
 	public void promoteItem(User user, Long itemId) throws ApiException {
 		Item item = getItem(itemId);
 		
-		if(!item.getAllowPromoting() || item.getMinimumFollowers() > user.getNumberOfFollowers()) {
+		if(!item.getAllowPromoting() || item.getMinimumFollowers() > userCounterService.getNumberOfFollowers(user)) {
 			throw new ApiException(EC.VALIDATION_ERROR, ErrorStatus.PROMOTING_NOT_ALLOWED);
 		}
 		
@@ -640,57 +965,148 @@ public class ItemService {
 	}
 	
 	public void checkBlockchainTransactionAndSetItemBlockchainIds() {
-		Map<String, Object> queryParams = new HashMap<>();
-		queryParams.put("blockchainId", null);
-		queryParams.put("createTransactionHash >", null);
+		Query<Item> query = ObjectifyService.ofy().load().type(Item.class)
+				.filter("blockchainId", null)
+				.filter("createTransactionHash >", null);
 		
-		CollectionResponse<Item> pendingItems = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE, null, Item.class);
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
-		while(pendingItems != null && pendingItems.getItems() != null && !pendingItems.getItems().isEmpty() && pendingItems.getNextPageToken() != null) {
-			for(Item item : pendingItems.getItems()) {
+		TransactionReceiptPoller receiptPoller = new TransactionReceiptPoller(Web3jProvider.getWeb3j(), BlockchainUtils.NODE_CONCURRENT_REQUESTS);
+		int updatedItems = 0;
+		for(List<Item> pendingItems : OfyBatchUtils.batches(query, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE)) {
+			List<String> transactionHashes = new ArrayList<>();
+			for(Item item : pendingItems) {
+				transactionHashes.add(item.getCreateTransactionHash());
+			}
+			Map<String, TransactionReceipt> receipts = receiptPoller.fetchReceipts(transactionHashes);
+			List<Item> itemsToSave = new ArrayList<>();
+			for(Item item : pendingItems) {
+				TransactionReceipt receipt = receipts.get(item.getCreateTransactionHash());
+				if (receipt == null) {
+					continue;
+				}
 				try {
-					String itemBlockchainId = BlockchainUtils.getItemBlockchainIdFromTransactionHash(web3, item.getCreateTransactionHash());
-					if (itemBlockchainId != null) {
-						item.setBlockchainId(itemBlockchainId);
-						item.setCreateTransactionHash(null);
-						ObjectifyService.ofy().save().entity(item).now();
-					}
+					item.setBlockchainId(BlockchainUtils.getItemBlockchainId(receipt));
+					item.setCreateTransactionHash(null);
+					itemsToSave.add(item);
 				} catch (Exception e) {
 					logger.log(Level.WARNING, "An error occurred during setting blockchain ids for pending items", e);
 				}
 			}
-			pendingItems = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE, pendingItems.getNextPageToken(), Item.class);
+			OfyBatchUtils.save(itemsToSave);
+			updatedItems += itemsToSave.size();
 		}
+		receiptPoller.logThroughput("checkBlockchainTransactionAndSetItemBlockchainIds", updatedItems);
 	}
 	
 	public void checkBlockchainTransactionAndSetItemSold() {
-		Map<String, Object> queryParams = new HashMap<>();
-		queryParams.put("buyTransactionHash >", null);
+		Query<Item> query = ObjectifyService.ofy().load().type(Item.class)
+				.filter("buyTransactionHash >", null);
 		
-		CollectionResponse<Item> pendingItems = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE, null, Item.class);
-		Web3j web3 = Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL));
-		while(pendingItems != null && pendingItems.getItems() != null && !pendingItems.getItems().isEmpty() && pendingItems.getNextPageToken() != null) {
-			for(Item item : pendingItems.getItems()) {
+		TransactionReceiptPoller receiptPoller = new TransactionReceiptPoller(Web3jProvider.getWeb3j(), BlockchainUtils.NODE_CONCURRENT_REQUESTS);
+		int updatedItems = 0;
+		for(List<Item> pendingItems : OfyBatchUtils.batches(query, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE)) {
+			List<String> transactionHashes = new ArrayList<>();
+			for(Item item : pendingItems) {
+				transactionHashes.add(item.getBuyTransactionHash());
+			}
+			Map<String, TransactionReceipt> receipts = receiptPoller.fetchReceipts(transactionHashes);
+			List<Item> itemsToSave = new ArrayList<>();
+			Map<Item, List<Log>> successfulPurchaseLogs = new HashMap<>();
+			for(Item item : pendingItems) {
+				TransactionReceipt receipt = receipts.get(item.getBuyTransactionHash());
+				if (receipt == null) {
+					continue;
+				}
 				try {
-					BlockchainTransactionStatusDto transactionStatus = BlockchainUtils.checkTransactionStatus(web3, item.getBuyTransactionHash());
+					BlockchainTransactionStatusDto transactionStatus = BlockchainUtils.getTransactionStatus(receipt);
 					if (transactionStatus.getStatus() == BlockchainTransactionStatus.SUCCESS) {
-						item.setBuyTransactionHash(null);
-						//TODO change to some more appropriate status
-						item.setIsExpired(true);
-						ObjectifyService.ofy().save().entity(item).now();
+						successfulPurchaseLogs.put(item, receipt.getLogs());
 					} else if (transactionStatus.getStatus() == BlockchainTransactionStatus.FAIL) {
 						logger.warning("Buy transaction failed, transactionHash: " + item.getBuyTransactionHash());
 						item.setBuyTransactionHash(null);
-						ObjectifyService.ofy().save().entity(item).now();
+						itemsToSave.add(item);
 					}
 				} catch (Exception e) {
 					logger.log(Level.WARNING, "An error occurred during setting sold flag for items", e);
 				}
 			}
-			pendingItems = OfyUtils.listPagedEntities(queryParams, null, Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE, pendingItems.getNextPageToken(), Item.class);
+			OfyBatchUtils.save(itemsToSave);
+			List<Item> soldItems = confirmSales(successfulPurchaseLogs);
+			List<Item> unpaidItems = new ArrayList<>();
+			for(Item item : successfulPurchaseLogs.keySet()) {
+				if (!soldItems.contains(item)) {
+					item.setBuyTransactionHash(null);
+					unpaidItems.add(item);
+				}
+			}
+			OfyBatchUtils.save(unpaidItems);
+			updatedItems += itemsToSave.size() + soldItems.size() + unpaidItems.size();
 		}
+		receiptPoller.logThroughput("checkBlockchainTransactionAndSetItemSold", updatedItems);
 	}
-	
+
+	/**
+	 * Marks items sold if logs of their buy transaction contain SCT transfer of item price to item owner (seller),
+	 * saves them and invalidates cached blockchain reads of sellers and buyers. Returns sold items, other items are left unchanged.
+	 */
+	public List<Item> confirmSales(Map<Item, List<Log>> buyTransactionLogs) {
+		if (buyTransactionLogs.isEmpty()) {
+			return Collections.<Item>emptyList();
+		}
+		Set<Long> ownerIds = new HashSet<>();
+		for (Item item : buyTransactionLogs.keySet()) {
+			ownerIds.add(item.getOwnerId());
+		}
+		Map<Long, User> owners = ObjectifyService.ofy().load().type(User.class).ids(ownerIds);
+		List<Item> soldItems = new ArrayList<>();
+		Map<Item, String> sellerAddresses = new HashMap<>();
+		Map<Item, String> buyerAddresses = new HashMap<>();
+		for (Map.Entry<Item, List<Log>> entry : buyTransactionLogs.entrySet()) {
+			Item item = entry.getKey();
+			User owner = owners.get(item.getOwnerId());
+			Log payment = null;
+			if (owner != null && owner.getEthereumAddress() != null && item.getPrice() != null) {
+				payment = BlockchainUtils.findTransfer(entry.getValue(), Constants.SCT_CONTRACT_ADDRESS, owner.getEthereumAddress(), BigInteger.valueOf(item.getPrice()));
+			}
+			if (payment == null) {
+				logger.warning("No SCT transfer of item price to seller in buy transaction, itemId: " + item.getId() + ", transactionHash: " + item.getBuyTransactionHash());
+				continue;
+			}
+			sellerAddresses.put(item, owner.getEthereumAddress());
+			buyerAddresses.put(item, BlockchainUtils.getTransferFrom(payment));
+			item.setBuyTransactionHash(null);
+			//TODO change to some more appropriate status
+			item.setIsExpired(true);
+			soldItems.add(item);
+		}
+		OfyBatchUtils.save(soldItems);
+		for (Item item : soldItems) {
+			BlockchainUtils.invalidatePurchaseCaches(item.getBlockchainId(), sellerAddresses.get(item), buyerAddresses.get(item));
+		}
+		return soldItems;
+	}
+
+	/**
+	 * Clears pending IIC owner change of given items, whose transactions emitted IIC logs, and invalidates
+	 * cached IIC owner and IIC lists of previous and new owner.
+	 */
+	public int confirmOwnerChanges(List<Item> items) {
+		for (Item item : items) {
+			item.setChangeOwnerTransactionHash(null);
+		}
+		OfyBatchUtils.save(items);
+		for (Item item : items) {
+			BlockchainUtils.invalidateOwnerChangeCaches(item.getBlockchainId(), item.getChangeOwnerFromAddress(), item.getChangeOwnerToAddress());
+		}
+		return items.size();
+	}
+
+	/**
+	 * Updates pending items from IIC and SCT contract logs, receipt polling jobs are still needed for failed transactions.
+	 */
+	public void indexBlockchainEvents() {
+		new BlockchainEventIndexer().indexEvents();
+	}
+
 	private Message getMessage(Long id) throws ApiException {
 		Message message = ObjectifyService.ofy().load().type(Message.class).id(id).now();
 		if(message == null) {
@@ -0,0 +1,55 @@
+package pl.itcraft.soma.core.utils;
+
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Buffer of item views shared by all instances. Views of an item are counted in one memcache counter,
+ * so a view does not cost a task or a write. The counter is never decreased, its part already added
+ * to counter shards is kept in datastore. Besides the counter a flag marks items having view task enqueued,
+ * so caller enqueues view task only when there is none and buffered views are persisted even if the item
+ * is not viewed again.
+ */
+public class ItemViewBuffer {
+
+	private static final String VIEWS_CACHE_PREFIX = "itemViews_";
+	private static final String TASK_PENDING_CACHE_PREFIX = "itemViewsTaskPending_";
+	// Flag lost together with its task, e.g. when enqueuing fails, stops blocking new tasks when it expires
+	private static final int TASK_PENDING_EXPIRATION_SECONDS = 5 * 60;
+
+	private static final Logger logger = Logger.getLogger(ItemViewBuffer.class.getName());
+	private static final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+	private ItemViewBuffer() {}
+
+	/**
+	 * Buffers view and returns true if item has no view task enqueued, so caller has to enqueue one.
+	 */
+	public static boolean add(Long itemId) {
+		if (memcacheService.increment(VIEWS_CACHE_PREFIX + itemId, 1L, 0L) == null) {
+			logger.warning("Item view not buffered, itemId: " + itemId);
+			return false;
+		}
+		return memcacheService.put(TASK_PENDING_CACHE_PREFIX + itemId, Boolean.TRUE,
+				Expiration.byDeltaSeconds(TASK_PENDING_EXPIRATION_SECONDS), MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+	}
+
+	/**
+	 * Returns number of all views of item counted by buffer, including views already persisted.
+	 */
+	public static long getTotal(Long itemId) {
+		Object total = memcacheService.get(VIEWS_CACHE_PREFIX + itemId);
+		return total != null ? ((Number) total).longValue() : 0L;
+	}
+
+	/**
+	 * Clears flag of enqueued view task. Called by worker before reading views, so view buffered afterwards
+	 * enqueues next task.
+	 */
+	public static void clearTaskPending(Long itemId) {
+		memcacheService.delete(TASK_PENDING_CACHE_PREFIX + itemId);
+	}
+}
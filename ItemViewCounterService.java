@@ -0,0 +1,167 @@
+package pl.itcraft.soma.core.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+
+import pl.itcraft.soma.core.QueueUtils;
+import pl.itcraft.soma.core.model.entities.AppliedItemViews;
+import pl.itcraft.soma.core.model.entities.Item;
+import pl.itcraft.soma.core.model.entities.ItemCounterShard;
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
+import pl.itcraft.soma.core.utils.ItemViewBuffer;
+
+/**
+ * Item views counting: views are buffered in memcache by {@link ItemViewBuffer} and a view of an item without
+ * enqueued view task writes pull task tagged by item id. Worker leases them in batches and adds views buffered
+ * since its previous task to a random {@link ItemCounterShard}, shards are periodically rolled up into {@link Item}.
+ */
+public class ItemViewCounterService {
+
+	public static final String ITEM_VIEWS_QUEUE_URL = "/queue/item-views";
+	public static final String ITEM_VIEWS_PULL_QUEUE_NAME = "item-views-pull";
+
+	private static final int VIEW_EVENTS_LEASE_LIMIT = 1000;
+	private static final long VIEW_EVENTS_LEASE_SECONDS = 120;
+	private static final long VIEW_EVENTS_PROCESSING_DELAY_MILLIS = 10 * 1000;
+	private static final long VIEW_EVENTS_PROCESSING_TIME_BUDGET_MILLIS = 60 * 1000;
+
+	private static final int NUMBER_OF_SHARDS = 20;
+
+	private final Logger logger = Logger.getLogger(ItemViewCounterService.class.getName());
+	private final MaintenanceJobService maintenanceJobService = new MaintenanceJobService();
+	private final ShardedCounter<ItemCounterShard, Item> shardedCounter = new ShardedCounter<ItemCounterShard, Item>(
+			ItemCounterShard.class, Item.class, "itemId", NUMBER_OF_SHARDS, 1) {
+
+		@Override
+		protected ItemCounterShard createShard(String key, Long itemId) {
+			ItemCounterShard shard = new ItemCounterShard();
+			shard.setKey(key);
+			shard.setItemId(itemId);
+			return shard;
+		}
+
+		@Override
+		protected void addDeltas(Item item, int[] deltas) {
+			item.addViews(deltas[0]);
+		}
+	};
+
+	/**
+	 * Buffers view and if item has no view task enqueued, writes pull task tagged by item id
+	 * and schedules worker leasing them.
+	 */
+	public void recordView(Long itemId) {
+		if (ItemViewBuffer.add(itemId)) {
+			try {
+				QueueFactory.getQueue(ITEM_VIEWS_PULL_QUEUE_NAME).add(TaskOptions.Builder.withMethod(TaskOptions.Method.PULL)
+						.tag(itemId.toString()));
+			} catch (RuntimeException e) {
+				ItemViewBuffer.clearTaskPending(itemId);
+				throw e;
+			}
+			scheduleViewEventsProcessing();
+		}
+	}
+
+	/**
+	 * Enqueues worker task. Task is named by time window, so instances buffering the first views of items
+	 * in the same window schedule only one worker.
+	 */
+	private void scheduleViewEventsProcessing() {
+		long window = System.currentTimeMillis() / VIEW_EVENTS_PROCESSING_DELAY_MILLIS;
+		try {
+			Queue queue = QueueFactory.getQueue(QueueUtils.ITEM_SHARD_QUEUE_NAME);
+			queue.add(TaskOptions.Builder.withUrl(ITEM_VIEWS_QUEUE_URL)
+					.taskName("item-views-" + window)
+					.countdownMillis(VIEW_EVENTS_PROCESSING_DELAY_MILLIS));
+		} catch (TaskAlreadyExistsException e) {
+			// Worker for this window is already scheduled
+		}
+	}
+
+	/**
+	 * Leases view tasks in batches and adds views buffered since last task of each item to its random shard.
+	 * Tasks of the item are deleted right after, task leased again after failure adds only views not added yet.
+	 */
+	public int processViewEvents() {
+		Queue pullQueue = QueueFactory.getQueue(ITEM_VIEWS_PULL_QUEUE_NAME);
+		long deadline = System.currentTimeMillis() + VIEW_EVENTS_PROCESSING_TIME_BUDGET_MILLIS;
+		int processed = 0;
+		List<TaskHandle> tasks;
+		do {
+			tasks = pullQueue.leaseTasks(VIEW_EVENTS_LEASE_SECONDS, TimeUnit.SECONDS, VIEW_EVENTS_LEASE_LIMIT);
+			Map<Long, List<TaskHandle>> tasksByItem = new HashMap<>();
+			for (TaskHandle task : tasks) {
+				tasksByItem.computeIfAbsent(Long.valueOf(task.getTag()), itemId -> new ArrayList<>()).add(task);
+			}
+			for (Map.Entry<Long, List<TaskHandle>> entry : tasksByItem.entrySet()) {
+				processViewTasks(pullQueue, entry.getKey(), entry.getValue());
+			}
+			processed += tasks.size();
+			logger.info("Processed item view tasks: " + tasks.size() + ", items: " + tasksByItem.size());
+		} while (tasks.size() == VIEW_EVENTS_LEASE_LIMIT && System.currentTimeMillis() < deadline);
+
+		if (tasks.size() == VIEW_EVENTS_LEASE_LIMIT) {
+			// Not named, name of the current window may belong to a worker which has already run
+			QueueFactory.getQueue(QueueUtils.ITEM_SHARD_QUEUE_NAME).add(TaskOptions.Builder.withUrl(ITEM_VIEWS_QUEUE_URL));
+		}
+		return processed;
+	}
+
+	private void processViewTasks(Queue pullQueue, Long itemId, List<TaskHandle> tasks) {
+		ItemViewBuffer.clearTaskPending(itemId);
+		addBufferedViews(itemId, ItemViewBuffer.getTotal(itemId));
+		pullQueue.deleteTask(tasks);
+	}
+
+	/**
+	 * Adds views buffered since last call to random shard of item. Total buffered views already added are saved
+	 * in the same transaction, so repeated call with the same total adds nothing.
+	 */
+	public void addBufferedViews(final Long itemId, final long totalViews) {
+		ObjectifyService.ofy().transact(new VoidWork() {
+
+			@Override
+			public void vrun() {
+				AppliedItemViews applied = ObjectifyService.ofy().load().type(AppliedItemViews.class).id(itemId).now();
+				if (applied == null) {
+					applied = new AppliedItemViews();
+					applied.setItemId(itemId);
+				}
+				long views = totalViews - applied.getViews();
+				if (views < 0) {
+					// Buffer was evicted and counts from zero again, views buffered before eviction are lost
+					logger.warning("Item view buffer evicted, itemId: " + itemId);
+					views = totalViews;
+				}
+				if (views == 0) {
+					return;
+				}
+				ItemCounterShard shard = shardedCounter.loadRandomShard(itemId);
+				shard.add((int) Math.min(views, Integer.MAX_VALUE));
+				applied.setViews(totalViews);
+				ObjectifyService.ofy().save().entities(shard, applied).now();
+			}
+		});
+	}
+
+	public void startCountersRollUp() {
+		maintenanceJobService.start(MaintenanceJobType.ROLL_UP_ITEM_VIEW_COUNTERS, null);
+	}
+
+	public ShardedCounter<ItemCounterShard, Item> getShardedCounter() {
+		return shardedCounter;
+	}
+}
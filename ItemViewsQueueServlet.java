@@ -0,0 +1,33 @@
+package pl.itcraft.soma.api.servlets.queue;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import pl.itcraft.soma.core.QueueUtils;
+import pl.itcraft.soma.core.service.ItemViewCounterService;
+
+public class ItemViewsQueueServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+	private final ItemViewCounterService itemViewCounterService = new ItemViewCounterService();
+
+	private final static Logger logger = Logger.getLogger(ItemViewsQueueServlet.class.getName());
+
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (QueueUtils.isRequestFromTaskQueue(request, response)) {
+			try {
+				itemViewCounterService.processViewEvents();
+			} catch (Exception e) {
+				// Views are added together with marker of the task, so retried task does not count them twice
+				logger.log(Level.WARNING, "error on adding item views", e);
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+}
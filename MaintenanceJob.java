@@ -0,0 +1,47 @@
+package pl.itcraft.soma.core.service;
+
+import java.util.List;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.googlecode.objectify.cmd.Query;
+
+import pl.itcraft.soma.core.objectify.OfyBatchUtils.BatchIterator;
+
+/**
+ * Long running job processed chunk by chunk by {@link MaintenanceJobService}. Chunks have to be idempotent,
+ * because a chunk may be processed again when task is retried.
+ */
+public abstract class MaintenanceJob<T> {
+
+	private static final long DEFAULT_TASK_TIME_BUDGET_MILLIS = 5 * 60 * 1000;
+
+	/**
+	 * Creates argument fixed for the whole run, so every task of the run opens the same query
+	 * and cursors saved by previous tasks stay valid. By default it is the shard key.
+	 */
+	protected String createArgument(String shard) {
+		return shard;
+	}
+
+	/**
+	 * Time after which task stops taking next chunks and enqueues continuation. Shorter budget
+	 * splits the job into more tasks, so it does not hold queue slots for long.
+	 */
+	protected long getTaskTimeBudgetMillis() {
+		return DEFAULT_TASK_TIME_BUDGET_MILLIS;
+	}
+
+	/**
+	 * Opens query of entities (or keys) to process, starting at given cursor when it is not null.
+	 */
+	protected abstract BatchIterator<T> openBatches(String argument, Cursor cursor);
+
+	/**
+	 * Processes single chunk and returns number of processed entities.
+	 */
+	protected abstract int processChunk(String argument, List<T> chunk);
+
+	protected static <E> Query<E> startAt(Query<E> query, Cursor cursor) {
+		return cursor != null ? query.startAt(cursor) : query;
+	}
+}
@@ -0,0 +1,39 @@
+package pl.itcraft.soma.api.servlets.queue;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import pl.itcraft.soma.core.QueueUtils;
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
+import pl.itcraft.soma.core.service.MaintenanceJobService;
+
+public class MaintenanceJobQueueServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+	private final MaintenanceJobService maintenanceJobService = new MaintenanceJobService();
+
+	private final static Logger logger = Logger.getLogger(MaintenanceJobQueueServlet.class.getName());
+
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (QueueUtils.isRequestFromTaskQueue(request, response)) {
+			MaintenanceJobType jobType = MaintenanceJobType.valueOf(request.getParameter(MaintenanceJobService.JOB_TYPE_PARAMETER_NAME));
+			try {
+				maintenanceJobService.run(jobType,
+						request.getParameter(MaintenanceJobService.JOB_KEY_PARAMETER_NAME),
+						request.getParameter(MaintenanceJobService.JOB_ARGUMENT_PARAMETER_NAME),
+						Long.parseLong(request.getParameter(MaintenanceJobService.RUN_ID_PARAMETER_NAME)),
+						request.getParameter(MaintenanceJobService.CURSOR_PARAMETER_NAME));
+			} catch (Exception e) {
+				// Task is retried from the same cursor, chunks processed before failure are processed again
+				logger.log(Level.WARNING, "error on running maintenance job " + jobType, e);
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+}
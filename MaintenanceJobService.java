@@ -0,0 +1,338 @@
+package pl.itcraft.soma.core.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import pl.itcraft.soma.core.Constants;
+import pl.itcraft.soma.core.QueueUtils;
+import pl.itcraft.soma.core.model.entities.CounterShard;
+import pl.itcraft.soma.core.model.entities.Following;
+import pl.itcraft.soma.core.model.entities.Item;
+import pl.itcraft.soma.core.model.entities.ItemPhoto;
+import pl.itcraft.soma.core.model.entities.MaintenanceJobState;
+import pl.itcraft.soma.core.model.entities.SearchKeyword;
+import pl.itcraft.soma.core.model.entities.SearchKeywordStringKey;
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
+import pl.itcraft.soma.core.objectify.OfyBatchUtils;
+import pl.itcraft.soma.core.objectify.OfyBatchUtils.BatchIterator;
+
+/**
+ * Runs {@link MaintenanceJob}s as chains of utils queue tasks. Every task processes chunks until its time budget
+ * is used, saves cursor and counters to {@link MaintenanceJobState} after each chunk and re-enqueues itself
+ * with the cursor, so large backlogs are drained across many requests instead of restarting from zero.
+ * Independent shards (e.g. users) of the same job type run as separate chains in parallel.
+ */
+public class MaintenanceJobService {
+
+	public static final String MAINTENANCE_JOB_QUEUE_URL = "/queue/maintenance-job";
+	public static final String JOB_TYPE_PARAMETER_NAME = "jobType";
+	public static final String JOB_KEY_PARAMETER_NAME = "jobKey";
+	public static final String JOB_ARGUMENT_PARAMETER_NAME = "jobArgument";
+	public static final String CURSOR_PARAMETER_NAME = "cursor";
+	public static final String RUN_ID_PARAMETER_NAME = "runId";
+
+	private static final long RUNNING_JOB_TIMEOUT_MILLIS = 30 * 60 * 1000;
+	private static final long FINISHED_CACHE_MILLIS = 60 * 1000;
+
+	// Time until which job type is known to be finished by this instance
+	private static final Map<MaintenanceJobType, Long> finishedJobs = new ConcurrentHashMap<>();
+
+	private final Logger logger = Logger.getLogger(MaintenanceJobService.class.getName());
+
+	/**
+	 * Starts new run of job, unless the same job (type and shard) is already running. State is checked and created
+	 * in one transaction with its first task, so concurrent starts do not run the same job twice. Run is identified
+	 * by its start time, so tasks of run restarted after timeout stop at their next chunk.
+	 */
+	public void start(final MaintenanceJobType type, final String shard) {
+		final String key = shard == null ? type.name() : type.name() + "_" + shard;
+		final String argument = getJob(type).createArgument(shard);
+		ObjectifyService.ofy().transact(new VoidWork() {
+			@Override
+			public void vrun() {
+				MaintenanceJobState state = getState(key);
+				if (state != null && !state.getFinished() && state.getUpdateDate() != null
+						&& state.getUpdateDate().getTime() > System.currentTimeMillis() - RUNNING_JOB_TIMEOUT_MILLIS) {
+					logger.info("Job " + key + " is already running, processed: " + state.getProcessed());
+					return;
+				}
+				state = new MaintenanceJobState();
+				state.setKey(key);
+				state.setType(type);
+				state.setArgument(argument);
+				state.setStartDate(new Date());
+				state.setUpdateDate(state.getStartDate());
+				ObjectifyService.ofy().save().entity(state);
+				enqueue(state);
+			}
+		});
+		finishedJobs.remove(type);
+	}
+
+	public MaintenanceJobState getState(String key) {
+		return ObjectifyService.ofy().load().type(MaintenanceJobState.class).id(key).now();
+	}
+
+	/**
+	 * Returns true if the last run of job without shard is finished. Meant for one-off migrations,
+	 * finished state is remembered by instance for a minute, so readers of not migrated data do not read
+	 * the state every time. Job started again is reported finished by other instances until then.
+	 */
+	public boolean isFinished(MaintenanceJobType type) {
+		Long cachedUntil = finishedJobs.get(type);
+		if (cachedUntil != null && cachedUntil > System.currentTimeMillis()) {
+			return true;
+		}
+		MaintenanceJobState state = getState(type.name());
+		if (state != null && state.getFinished()) {
+			finishedJobs.put(type, System.currentTimeMillis() + FINISHED_CACHE_MILLIS);
+			return true;
+		}
+		finishedJobs.remove(type);
+		return false;
+	}
+
+	public void run(MaintenanceJobType type, String key, String argument, long runId, String cursor) {
+		runChunks(getJob(type), key, argument, runId, cursor);
+	}
+
+	private <T> void runChunks(MaintenanceJob<T> job, String key, String argument, long runId, String cursor) {
+		long deadline = System.currentTimeMillis() + job.getTaskTimeBudgetMillis();
+		MaintenanceJobState state = getState(key);
+		if (!isCurrentRun(state, runId)) {
+			logger.info("Task of finished or restarted job " + key + " skipped");
+			return;
+		}
+		if (state.getCursor() != null) {
+			// Retried task continues after chunks already counted by its previous attempt
+			cursor = state.getCursor();
+		}
+		state.setTasks(state.getTasks() + 1);
+
+		BatchIterator<T> batches = job.openBatches(argument, cursor != null ? Cursor.fromWebSafeString(cursor) : null);
+		while (batches.hasNext()) {
+			int processed = job.processChunk(argument, batches.next());
+			state.addChunk(processed, batches.getCursor().toWebSafeString());
+			if (!saveIfCurrentRun(state)) {
+				logger.info("Job " + key + " was restarted, task of previous run stopped");
+				return;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				logger.info("Job " + key + " continues in next task, processed: " + state.getProcessed() + ", chunks: " + state.getChunks());
+				enqueue(state);
+				return;
+			}
+		}
+		state.setFinished(true);
+		state.setFinishDate(new Date());
+		state.setUpdateDate(state.getFinishDate());
+		if (saveIfCurrentRun(state)) {
+			logger.info("Job " + key + " finished, processed: " + state.getProcessed() + ", chunks: " + state.getChunks() + ", tasks: " + state.getTasks());
+		}
+	}
+
+	private boolean isCurrentRun(MaintenanceJobState state, long runId) {
+		return state != null && !state.getFinished() && state.getStartDate().getTime() == runId;
+	}
+
+	/**
+	 * Saves state in transaction which checks that no other run of the job was started in the meantime.
+	 * State of finished job with shard is deleted instead, only finished jobs without shard are kept for {@link #isFinished}.
+	 */
+	private boolean saveIfCurrentRun(final MaintenanceJobState state) {
+		return ObjectifyService.ofy().transact(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				if (!isCurrentRun(getState(state.getKey()), state.getStartDate().getTime())) {
+					return false;
+				}
+				if (state.getFinished() && !state.getKey().equals(state.getType().name())) {
+					ObjectifyService.ofy().delete().entity(state);
+				} else {
+					ObjectifyService.ofy().save().entity(state);
+				}
+				return true;
+			}
+		});
+	}
+
+	private void enqueue(MaintenanceJobState state) {
+		TaskOptions task = TaskOptions.Builder.withUrl(MAINTENANCE_JOB_QUEUE_URL)
+				.param(JOB_TYPE_PARAMETER_NAME, state.getType().name())
+				.param(JOB_KEY_PARAMETER_NAME, state.getKey())
+				.param(RUN_ID_PARAMETER_NAME, Long.toString(state.getStartDate().getTime()));
+		if (state.getArgument() != null) {
+			task.param(JOB_ARGUMENT_PARAMETER_NAME, state.getArgument());
+		}
+		if (state.getCursor() != null) {
+			task.param(CURSOR_PARAMETER_NAME, state.getCursor());
+		}
+		Queue queue = QueueFactory.getQueue(QueueUtils.UTILS_QUEUE_NAME);
+		if (ObjectifyService.ofy().getTransaction() != null) {
+			queue.add(ObjectifyService.ofy().getTransaction(), task);
+		} else {
+			queue.add(task);
+		}
+	}
+
+	private MaintenanceJob<?> getJob(MaintenanceJobType type) {
+		switch (type) {
+		case DELETE_UNUSED_PHOTOS:
+			return new DeleteUnusedPhotosJob();
+		case DELETE_EXPIRED_ITEMS:
+			return new DeleteExpiredItemsJob();
+		case DELETE_SEARCH_HISTORY:
+			return new DeleteSearchHistoryJob();
+		case MIGRATE_SEARCH_KEYWORDS:
+			return new MigrateSearchKeywordsJob();
+		case MIGRATE_FOLLOWINGS:
+			return new MigrateFollowingsJob();
+		case ROLL_UP_USER_COUNTERS:
+			return new RollUpCountersJob<>(new UserCounterService().getShardedCounter());
+		case ROLL_UP_ITEM_LIKE_COUNTERS:
+			return new RollUpCountersJob<>(new ItemLikeCounterService().getShardedCounter());
+		case ROLL_UP_ITEM_VIEW_COUNTERS:
+			return new RollUpCountersJob<>(new ItemViewCounterService().getShardedCounter());
+		default:
+			throw new IllegalArgumentException("Unknown maintenance job type: " + type);
+		}
+	}
+
+	/**
+	 * Only keys are read by query, photos are loaded by keys with one batch get per chunk.
+	 */
+	private static class DeleteUnusedPhotosJob extends MaintenanceJob<Key<ItemPhoto>> {
+
+		private final ItemService itemService = new ItemService();
+
+		@Override
+		protected String createArgument(String shard) {
+			return String.valueOf(DateTime.now().minusHours(Constants.UNUSED_PHOTO_EXPIRATION_TIME).getMillis());
+		}
+
+		@Override
+		protected BatchIterator<Key<ItemPhoto>> openBatches(String argument, Cursor cursor) {
+			return OfyBatchUtils.keyBatches(startAt(itemService.unusedPhotosQuery(new Date(Long.parseLong(argument))), cursor), OfyBatchUtils.DATASTORE_BATCH_LIMIT);
+		}
+
+		@Override
+		protected int processChunk(String argument, List<Key<ItemPhoto>> chunk) {
+			return itemService.deleteUnusedPhotos(chunk);
+		}
+	}
+
+	private static class DeleteExpiredItemsJob extends MaintenanceJob<Item> {
+
+		private final ItemService itemService = new ItemService();
+
+		@Override
+		protected String createArgument(String shard) {
+			return String.valueOf(System.currentTimeMillis());
+		}
+
+		@Override
+		protected BatchIterator<Item> openBatches(String argument, Cursor cursor) {
+			return OfyBatchUtils.batches(startAt(itemService.expiredItemsQuery(new Date(Long.parseLong(argument))), cursor), Constants.SEARCH_ENGINE_ITEM_BATCH_SIZE);
+		}
+
+		@Override
+		protected int processChunk(String argument, List<Item> chunk) {
+			return itemService.expireItems(chunk);
+		}
+	}
+
+	/**
+	 * Argument is userId and search history index, keywords with lower index are deleted.
+	 * Only keys are read, each chunk is deleted with a single batch delete.
+	 */
+	private static class DeleteSearchHistoryJob extends MaintenanceJob<Key<SearchKeywordStringKey>> {
+
+		private static final long SEARCH_HISTORY_TASK_TIME_BUDGET_MILLIS = 30 * 1000;
+
+		private final ItemService itemService = new ItemService();
+
+		@Override
+		protected long getTaskTimeBudgetMillis() {
+			return SEARCH_HISTORY_TASK_TIME_BUDGET_MILLIS;
+		}
+
+		@Override
+		protected BatchIterator<Key<SearchKeywordStringKey>> openBatches(String argument, Cursor cursor) {
+			String[] userIdAndIndex = argument.split("_");
+			return OfyBatchUtils.keyBatches(startAt(itemService.searchHistoryToDeleteQuery(Long.valueOf(userIdAndIndex[0]), Integer.valueOf(userIdAndIndex[1])), cursor), OfyBatchUtils.DATASTORE_BATCH_LIMIT);
+		}
+
+		@Override
+		protected int processChunk(String argument, List<Key<SearchKeywordStringKey>> chunk) {
+			return itemService.deleteSearchKeywords(chunk);
+		}
+	}
+
+	private static class MigrateSearchKeywordsJob extends MaintenanceJob<SearchKeyword> {
+
+		private final ItemService itemService = new ItemService();
+
+		@Override
+		protected BatchIterator<SearchKeyword> openBatches(String argument, Cursor cursor) {
+			return OfyBatchUtils.batches(startAt(ObjectifyService.ofy().load().type(SearchKeyword.class), cursor), OfyBatchUtils.DATASTORE_BATCH_LIMIT);
+		}
+
+		@Override
+		protected int processChunk(String argument, List<SearchKeyword> chunk) {
+			return itemService.migrateSearchKeywords(chunk);
+		}
+	}
+
+	private static class MigrateFollowingsJob extends MaintenanceJob<Following> {
+
+		private final FollowingService followingService = new FollowingService();
+
+		@Override
+		protected BatchIterator<Following> openBatches(String argument, Cursor cursor) {
+			return OfyBatchUtils.batches(startAt(ObjectifyService.ofy().load().type(Following.class), cursor), OfyBatchUtils.DATASTORE_BATCH_LIMIT);
+		}
+
+		@Override
+		protected int processChunk(String argument, List<Following> chunk) {
+			return followingService.migrateFollowings(chunk);
+		}
+	}
+
+	/**
+	 * Rolls up modified shards of given sharded counter into their owners.
+	 */
+	private static class RollUpCountersJob<S extends CounterShard> extends MaintenanceJob<S> {
+
+		private static final int ROLL_UP_CHUNK_SIZE = 100;
+
+		private final ShardedCounter<S, ?> shardedCounter;
+
+		private RollUpCountersJob(ShardedCounter<S, ?> shardedCounter) {
+			this.shardedCounter = shardedCounter;
+		}
+
+		@Override
+		protected BatchIterator<S> openBatches(String argument, Cursor cursor) {
+			return OfyBatchUtils.batches(startAt(shardedCounter.modifiedShardsQuery(), cursor), ROLL_UP_CHUNK_SIZE);
+		}
+
+		@Override
+		protected int processChunk(String argument, List<S> chunk) {
+			return shardedCounter.rollUpShards(chunk);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package pl.itcraft.soma.core.model.entities;
+
+import java.util.Date;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
+
+@Entity
+public class MaintenanceJobState {
+
+	@Id
+	private String key;
+	@Index
+	private MaintenanceJobType type;
+	private String argument;
+	private String cursor;
+	@Index
+	private Boolean finished = false;
+	private Long processed = 0L;
+	private Integer chunks = 0;
+	private Integer tasks = 0;
+	private Date startDate;
+	private Date updateDate;
+	private Date finishDate;
+
+	public String getKey() {
+		return key;
+	}
+	public void setKey(String key) {
+		this.key = key;
+	}
+	public MaintenanceJobType getType() {
+		return type;
+	}
+	public void setType(MaintenanceJobType type) {
+		this.type = type;
+	}
+	public String getArgument() {
+		return argument;
+	}
+	public void setArgument(String argument) {
+		this.argument = argument;
+	}
+	public String getCursor() {
+		return cursor;
+	}
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+	public Boolean getFinished() {
+		return finished;
+	}
+	public void setFinished(Boolean finished) {
+		this.finished = finished;
+	}
+	public Long getProcessed() {
+		return processed;
+	}
+	public void setProcessed(Long processed) {
+		this.processed = processed;
+	}
+	public Integer getChunks() {
+		return chunks;
+	}
+	public void setChunks(Integer chunks) {
+		this.chunks = chunks;
+	}
+	public Integer getTasks() {
+		return tasks;
+	}
+	public void setTasks(Integer tasks) {
+		this.tasks = tasks;
+	}
+	public Date getStartDate() {
+		return startDate;
+	}
+	public void setStartDate(Date startDate) {
+		this.startDate = startDate;
+	}
+	public Date getUpdateDate() {
+		return updateDate;
+	}
+	public void setUpdateDate(Date updateDate) {
+		this.updateDate = updateDate;
+	}
+	public Date getFinishDate() {
+		return finishDate;
+	}
+	public void setFinishDate(Date finishDate) {
+		this.finishDate = finishDate;
+	}
+
+	public void addChunk(int processedInChunk, String cursor) {
+		this.processed += processedInChunk;
+		this.chunks++;
+		this.cursor = cursor;
+		this.updateDate = new Date();
+	}
+
+}
@@ -0,0 +1,12 @@
+package pl.itcraft.soma.core.model.enums;
+
+public enum MaintenanceJobType {
+	DELETE_UNUSED_PHOTOS,
+	DELETE_EXPIRED_ITEMS,
+	DELETE_SEARCH_HISTORY,
+	MIGRATE_SEARCH_KEYWORDS,
+	MIGRATE_FOLLOWINGS,
+	ROLL_UP_USER_COUNTERS,
+	ROLL_UP_ITEM_LIKE_COUNTERS,
+	ROLL_UP_ITEM_VIEW_COUNTERS
+}
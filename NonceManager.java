@@ -0,0 +1,134 @@
+package pl.itcraft.soma.core.utils;
+
+import java.math.BigInteger;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import org.web3j.protocol.Web3j;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Hands out nonces for transactions signed by server wallet without asking node before every transaction.
+ * Next nonce is kept in memcache and allocated with atomic increment, so all instances share one sequence.
+ * It is synced from node PENDING transaction count when missing (first use or eviction). After failed send
+ * the sequence is only moved forward to node count, because nonces allocated by other instances may not be sent yet,
+ * and nonce of failed transaction is released to a shared free list, so later transactions are not stuck behind a gap.
+ */
+public class NonceManager {
+
+	private static final Logger logger = Logger.getLogger(NonceManager.class.getName());
+	private static final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+	private static final String NEXT_NONCE_CACHE_PREFIX = "ethereumNextNonce_";
+	private static final String FREE_NONCES_CACHE_PREFIX = "ethereumFreeNonces_";
+	private static final int MAX_UPDATE_ATTEMPTS = 10;
+
+	private NonceManager() {}
+
+	public static BigInteger allocate(Web3j web3, String address) {
+		Long free = takeFreeNonce(address);
+		if (free != null) {
+			return BigInteger.valueOf(free);
+		}
+		String key = nextNonceKey(address);
+		Long next = memcacheService.increment(key, 1);
+		if (next == null) {
+			BigInteger nonce = BlockchainUtils.getNextAvailableNonce(web3, address);
+			logger.info("Nonce synced with node for address: " + address + ", nonce: " + nonce);
+			// Initial value is used only if no other instance has initialized the sequence in the meantime
+			next = memcacheService.increment(key, 1, nonce.longValue());
+		}
+		return BigInteger.valueOf(next - 1);
+	}
+
+	/**
+	 * Releases nonce of transaction which was not sent. Should be called after every failed send. Moves next nonce
+	 * forward to node PENDING transaction count, never back, and keeps released nonce for reuse unless node has
+	 * already used it.
+	 */
+	public static void release(Web3j web3, String address, BigInteger nonce) {
+		BigInteger pending = null;
+		try {
+			pending = BlockchainUtils.getNextAvailableNonce(web3, address);
+			moveForward(address, pending.longValue());
+		} catch (RuntimeException e) {
+			// Node is not reachable, reused nonce which turns out to be used fails and is released again
+			logger.warning("Nonce resync failed for address: " + address);
+		}
+		if (pending == null || nonce.compareTo(pending) >= 0) {
+			addFreeNonce(address, nonce.longValue());
+		}
+	}
+
+	private static void moveForward(String address, long nodeNext) {
+		String key = nextNonceKey(address);
+		for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+			IdentifiableValue current = memcacheService.getIdentifiable(key);
+			if (current == null) {
+				if (memcacheService.put(key, nodeNext, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+					return;
+				}
+				continue;
+			}
+			long next = ((Number) current.getValue()).longValue();
+			if (next >= nodeNext) {
+				return;
+			}
+			if (memcacheService.putIfUntouched(key, current, nodeNext)) {
+				logger.info("Nonce moved forward for address: " + address + ", from: " + next + ", to: " + nodeNext);
+				return;
+			}
+		}
+		logger.warning("Nonce not moved forward because of concurrent allocations, address: " + address);
+	}
+
+	private static Long takeFreeNonce(String address) {
+		String key = freeNoncesKey(address);
+		for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+			IdentifiableValue current = memcacheService.getIdentifiable(key);
+			if (current == null) {
+				return null;
+			}
+			TreeSet<Long> freeNonces = copy(current);
+			Long free = freeNonces.pollFirst();
+			if (free == null) {
+				return null;
+			}
+			if (memcacheService.putIfUntouched(key, current, freeNonces)) {
+				return free;
+			}
+		}
+		return null;
+	}
+
+	private static void addFreeNonce(String address, long nonce) {
+		String key = freeNoncesKey(address);
+		for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+			IdentifiableValue current = memcacheService.getIdentifiable(key);
+			TreeSet<Long> freeNonces = current != null ? copy(current) : new TreeSet<>();
+			freeNonces.add(nonce);
+			if (current == null ? memcacheService.put(key, freeNonces, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+					: memcacheService.putIfUntouched(key, current, freeNonces)) {
+				return;
+			}
+		}
+		logger.warning("Nonce not released because of concurrent updates, address: " + address + ", nonce: " + nonce);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static TreeSet<Long> copy(IdentifiableValue value) {
+		return new TreeSet<>((Set<Long>) value.getValue());
+	}
+
+	private static String nextNonceKey(String address) {
+		return NEXT_NONCE_CACHE_PREFIX + address.toLowerCase();
+	}
+
+	private static String freeNoncesKey(String address) {
+		return FREE_NONCES_CACHE_PREFIX + address.toLowerCase();
+	}
+}
@@ -0,0 +1,93 @@
+package pl.itcraft.soma.core.objectify;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.cmd.Query;
+
+/**
+ * Helpers for batch jobs: streaming a query in batches with a single cursor-backed iterator,
+ * and saving or deleting entities in chunks fitting datastore batch limit.
+ */
+public class OfyBatchUtils {
+
+	public static final int DATASTORE_BATCH_LIMIT = 500;
+
+	private OfyBatchUtils() {}
+
+	/**
+	 * Streams all query results in lists of at most {@code batchSize} entities. Query is executed once,
+	 * following batches are fetched with its cursor, so no result page is skipped.
+	 */
+	public static <T> BatchIterator<T> batches(Query<T> query, int batchSize) {
+		return new BatchIterator<>(query.chunk(batchSize).iterator(), batchSize);
+	}
+
+	public static <T> BatchIterator<Key<T>> keyBatches(Query<T> query, int batchSize) {
+		return new BatchIterator<>(query.chunk(batchSize).keys().iterator(), batchSize);
+	}
+
+	public static void save(List<?> entities) {
+		for (int from = 0; from < entities.size(); from += DATASTORE_BATCH_LIMIT) {
+			ObjectifyService.ofy().save().entities(entities.subList(from, Math.min(from + DATASTORE_BATCH_LIMIT, entities.size()))).now();
+		}
+	}
+
+	public static void delete(List<?> entities) {
+		for (int from = 0; from < entities.size(); from += DATASTORE_BATCH_LIMIT) {
+			ObjectifyService.ofy().delete().entities(entities.subList(from, Math.min(from + DATASTORE_BATCH_LIMIT, entities.size()))).now();
+		}
+	}
+
+	public static void deleteKeys(List<? extends Key<?>> keys) {
+		for (int from = 0; from < keys.size(); from += DATASTORE_BATCH_LIMIT) {
+			ObjectifyService.ofy().delete().keys(keys.subList(from, Math.min(from + DATASTORE_BATCH_LIMIT, keys.size()))).now();
+		}
+	}
+
+	public static class BatchIterator<T> implements Iterator<List<T>>, Iterable<List<T>> {
+
+		private final QueryResultIterator<T> iterator;
+		private final int batchSize;
+
+		private BatchIterator(QueryResultIterator<T> iterator, int batchSize) {
+			this.iterator = iterator;
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public List<T> next() {
+			if (!iterator.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			List<T> batch = new ArrayList<>(batchSize);
+			while (batch.size() < batchSize && iterator.hasNext()) {
+				batch.add(iterator.next());
+			}
+			return batch;
+		}
+
+		/**
+		 * Cursor pointing right after last returned entity.
+		 */
+		public Cursor getCursor() {
+			return iterator.getCursor();
+		}
+
+		@Override
+		public Iterator<List<T>> iterator() {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package pl.itcraft.soma.core.utils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.web3j.abi.TypeEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+/**
+ * {@link BlockchainLogSource} returning logs added to it instead of reading them from node. Used to run
+ * {@link pl.itcraft.soma.core.service.BlockchainEventIndexer} against recorded or hand-made logs.
+ */
+public class RecordedBlockchainLogSource implements BlockchainLogSource {
+
+	private final List<Log> logs = new ArrayList<>();
+	private BigInteger latestBlockNumber = BigInteger.ZERO;
+
+	public RecordedBlockchainLogSource addLog(Log log) {
+		logs.add(log);
+		latestBlockNumber = latestBlockNumber.max(log.getBlockNumber());
+		return this;
+	}
+
+	public RecordedBlockchainLogSource setLatestBlockNumber(BigInteger latestBlockNumber) {
+		this.latestBlockNumber = latestBlockNumber;
+		return this;
+	}
+
+	@Override
+	public BigInteger getLatestBlockNumber() {
+		return latestBlockNumber;
+	}
+
+	@Override
+	public List<Log> getLogs(String contractAddress, BigInteger fromBlock, BigInteger toBlock) {
+		List<Log> result = new ArrayList<>();
+		for (Log log : logs) {
+			if (contractAddress.equalsIgnoreCase(log.getAddress()) && log.getBlockNumber().compareTo(fromBlock) >= 0
+					&& log.getBlockNumber().compareTo(toBlock) <= 0) {
+				result.add(log);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates ERC20 Transfer event log as emitted by SCT contract.
+	 */
+	public static Log transferLog(String contractAddress, String transactionHash, long blockNumber, String from, String to, BigInteger amount) {
+		return log(contractAddress, transactionHash, blockNumber,
+				Arrays.asList(BlockchainUtils.TRANSFER_EVENT_TOPIC, addressTopic(from), addressTopic(to)),
+				Numeric.prependHexPrefix(TypeEncoder.encode(new Uint256(amount))));
+	}
+
+	/**
+	 * Creates log with given data and no topics, as IIC mint log read by {@link BlockchainUtils#getItemBlockchainId(Log)}.
+	 */
+	public static Log dataLog(String contractAddress, String transactionHash, long blockNumber, BigInteger data) {
+		return log(contractAddress, transactionHash, blockNumber, new ArrayList<String>(),
+				Numeric.prependHexPrefix(TypeEncoder.encode(new Uint256(data))));
+	}
+
+	private static Log log(String contractAddress, String transactionHash, long blockNumber, List<String> topics, String data) {
+		Log log = new Log();
+		log.setAddress(contractAddress);
+		log.setTransactionHash(transactionHash);
+		log.setBlockNumber(Numeric.encodeQuantity(BigInteger.valueOf(blockNumber)));
+		log.setTopics(topics);
+		log.setData(data);
+		log.setRemoved(false);
+		return log;
+	}
+
+	private static String addressTopic(String address) {
+		return Numeric.prependHexPrefix(TypeEncoder.encode(new Address(address)));
+	}
+}
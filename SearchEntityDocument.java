@@ -21,6 +21,8 @@ import pl.itcraft.soma.core.model.enums.Category;
 public class SearchEntityDocument {
 
 	private static final Logger logger = Logger.getLogger(SearchEntityDocument.class.getCanonicalName());
+	private static final String PHOTO_IDS_SEPARATOR = ",";
+	private static final int MAX_ATOM_LENGTH = 500;
 
 	private String id;
 	private String searchableTextValue;
@@ -31,6 +33,8 @@ public class SearchEntityDocument {
 	private Set<String> tmpPrefixes;
 
 	private Date creationDate;
+	// Lets search page start photo batch get together with item batch get, may be stale or missing in old documents
+	private List<Long> photoIds;
 
 
 	public SearchEntityDocument(Item item, Boolean isFriend, Boolean isPromoted) {
@@ -41,6 +45,7 @@ public class SearchEntityDocument {
 		this.isFriend = isFriend == null ? 0 : isFriend ? 1 : 0;
 		this.isPromoted = isPromoted == null ? 0 : isPromoted ? 1 : 0;
 		this.category = item.getCategory();
+		this.photoIds = item.getPhotoIds();
 
 		appendPrefixes(item.getTitle());
 
@@ -76,6 +81,15 @@ public class SearchEntityDocument {
 		if (document.getFieldNames().contains("location")) {
 			this.location = document.getOnlyField("location").getGeoPoint();
 		}
+
+		if (fieldNames.contains("photoIds")) {
+			this.photoIds = new ArrayList<Long>();
+			for (String photoId : document.getOnlyField("photoIds").getAtom().split(PHOTO_IDS_SEPARATOR)) {
+				if (!photoId.isEmpty()) {
+					this.photoIds.add(Long.valueOf(photoId));
+				}
+			}
+		}
 	}
 	
 	private void appendPrefixes(String value) {
@@ -141,6 +155,16 @@ public class SearchEntityDocument {
 		if (category != null) {
 			builder = builder.addField(Field.newBuilder().setName("category").setText(category.toString()));
 		}
+		if (photoIds != null && !photoIds.isEmpty()) {
+			StringBuilder sb = new StringBuilder();
+			for (Long photoId : photoIds) {
+				sb.append(photoId).append(PHOTO_IDS_SEPARATOR);
+			}
+			// Atom field is not tokenized, so photo ids are not matched by keyword search
+			if (sb.length() <= MAX_ATOM_LENGTH) {
+				builder = builder.addField(Field.newBuilder().setName("photoIds").setAtom(sb.toString()));
+			}
+		}
 
 		return builder.build();
 	}
@@ -221,4 +245,12 @@ public class SearchEntityDocument {
 		this.isPromoted = isPromoted;
 	}
 
+	public List<Long> getPhotoIds() {
+		return photoIds;
+	}
+
+	public void setPhotoIds(List<Long> photoIds) {
+		this.photoIds = photoIds;
+	}
+
 }
@@ -0,0 +1,139 @@
+package pl.itcraft.soma.core.utils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import pl.itcraft.soma.core.model.entities.SearchKeywordStringKey;
+
+/**
+ * Write-behind buffer of searched keywords shared by all instances. Keywords of one search history are kept
+ * in one memcache entry keyed by user and search index, repeated searches of the same keyword are coalesced
+ * into one keyword with the latest search date. Buffered keywords are persisted by delayed flush task scheduled
+ * when the first keyword of search history is buffered, so they are saved even if user does not search again.
+ */
+public class SearchKeywordBuffer {
+
+	public static final String SEARCH_KEYWORDS_QUEUE_URL = "/queue/search-keywords";
+	public static final String USER_ID_PARAMETER_NAME = "userId";
+	public static final String SEARCH_INDEX_PARAMETER_NAME = "searchIndex";
+	public static final long FLUSH_INTERVAL_MILLIS = 10 * 1000;
+
+	private static final int PENDING_EXPIRATION_SECONDS = 10 * 60;
+	private static final int MAX_UPDATE_ATTEMPTS = 10;
+	private static final String PENDING_CACHE_PREFIX = "searchKeywordsPending_";
+	private static final String SEPARATOR = "|";
+
+	private static final Logger logger = Logger.getLogger(SearchKeywordBuffer.class.getName());
+	private static final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+	private SearchKeywordBuffer() {}
+
+	/**
+	 * Buffers keyword and returns true if it is the first buffered keyword of its search history, so flush
+	 * of that search history has to be scheduled.
+	 */
+	public static boolean add(SearchKeywordStringKey searchKeyword) {
+		String cacheKey = cacheKey(searchKeyword.getUserId(), searchKeyword.getSearchIndex());
+		for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+			IdentifiableValue current = memcacheService.getIdentifiable(cacheKey);
+			LinkedHashMap<String, String> keywords = current != null ? copy(current) : new LinkedHashMap<>();
+			boolean first = keywords.isEmpty();
+			keywords.remove(searchKeyword.getKeyword());
+			keywords.put(searchKeyword.getKeyword(), encode(searchKeyword));
+			if (current == null ? memcacheService.put(cacheKey, keywords, expiration(), MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+					: memcacheService.putIfUntouched(cacheKey, current, keywords, expiration())) {
+				return first;
+			}
+		}
+		logger.warning("Search keyword not buffered because of concurrent updates, userId: " + searchKeyword.getUserId());
+		return false;
+	}
+
+	/**
+	 * Returns buffered keywords of given search history.
+	 */
+	public static List<SearchKeywordStringKey> getPending(Long userId, Integer searchIndex) {
+		@SuppressWarnings("unchecked")
+		Map<String, String> keywords = (Map<String, String>) memcacheService.get(cacheKey(userId, searchIndex));
+		List<SearchKeywordStringKey> pending = new ArrayList<>();
+		if (keywords != null) {
+			for (Map.Entry<String, String> entry : keywords.entrySet()) {
+				SearchKeywordStringKey searchKeyword = decode(entry.getValue());
+				searchKeyword.setKeyword(entry.getKey());
+				searchKeyword.setKey(SearchKeywordStringKey.generateKey(userId, searchIndex, entry.getKey()));
+				pending.add(searchKeyword);
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Removes given persisted keywords from buffer, unless they were searched again in the meantime.
+	 * Returns true if other keywords are still buffered, so next flush has to be scheduled.
+	 */
+	public static boolean remove(Long userId, Integer searchIndex, List<SearchKeywordStringKey> persisted) {
+		String cacheKey = cacheKey(userId, searchIndex);
+		for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+			IdentifiableValue current = memcacheService.getIdentifiable(cacheKey);
+			if (current == null) {
+				return false;
+			}
+			LinkedHashMap<String, String> keywords = copy(current);
+			for (SearchKeywordStringKey searchKeyword : persisted) {
+				keywords.remove(searchKeyword.getKeyword(), encode(searchKeyword));
+			}
+			// Empty map is kept instead of delete, so keyword buffered concurrently is never removed
+			if (memcacheService.putIfUntouched(cacheKey, current, keywords, expiration())) {
+				return !keywords.isEmpty();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Drops buffered keywords of search history cleared by user.
+	 */
+	public static void drop(Long userId, Integer searchIndex) {
+		memcacheService.delete(cacheKey(userId, searchIndex));
+	}
+
+	private static String encode(SearchKeywordStringKey searchKeyword) {
+		return searchKeyword.getUserId() + SEPARATOR + searchKeyword.getSearchIndex() + SEPARATOR
+				+ searchKeyword.getSearchDate().getTime() + SEPARATOR + searchKeyword.getRawKeyword();
+	}
+
+	/**
+	 * Decodes entry encoded by {@link #encode}, normalized keyword and key are not encoded and have to be set by caller.
+	 */
+	private static SearchKeywordStringKey decode(String encoded) {
+		String[] parts = encoded.split("\\" + SEPARATOR, 4);
+		SearchKeywordStringKey searchKeyword = new SearchKeywordStringKey();
+		searchKeyword.setUserId(Long.valueOf(parts[0]));
+		searchKeyword.setSearchIndex(Integer.valueOf(parts[1]));
+		searchKeyword.setSearchDate(new Date(Long.parseLong(parts[2])));
+		searchKeyword.setRawKeyword(parts[3]);
+		return searchKeyword;
+	}
+
+	private static String cacheKey(Long userId, Integer searchIndex) {
+		return PENDING_CACHE_PREFIX + userId + "_" + searchIndex;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static LinkedHashMap<String, String> copy(IdentifiableValue value) {
+		return new LinkedHashMap<>((Map<String, String>) value.getValue());
+	}
+
+	private static Expiration expiration() {
+		return Expiration.byDeltaSeconds(PENDING_EXPIRATION_SECONDS);
+	}
+}
@@ -0,0 +1,35 @@
+package pl.itcraft.soma.api.servlets.queue;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import pl.itcraft.soma.core.QueueUtils;
+import pl.itcraft.soma.core.service.ItemService;
+import pl.itcraft.soma.core.utils.SearchKeywordBuffer;
+
+public class SearchKeywordQueueServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+	private final ItemService itemService = new ItemService();
+
+	private final static Logger logger = Logger.getLogger(SearchKeywordQueueServlet.class.getName());
+
+	@Override
+	public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (QueueUtils.isRequestFromTaskQueue(request, response)) {
+			try {
+				itemService.flushSearchKeywords(Long.valueOf(request.getParameter(SearchKeywordBuffer.USER_ID_PARAMETER_NAME)),
+						Integer.valueOf(request.getParameter(SearchKeywordBuffer.SEARCH_INDEX_PARAMETER_NAME)));
+			} catch (Exception e) {
+				// Upsert keeps the latest search date, so retried task does not overwrite newer searches
+				logger.log(Level.WARNING, "error on saving search keywords", e);
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+}
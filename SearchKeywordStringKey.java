@@ -0,0 +1,86 @@
+package pl.itcraft.soma.core.model.entities;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+/**
+ * Search history entry keyed by userId, searchIndex and normalized keyword, so repeated search
+ * of the same keyword is saved without a query. Replaces {@link SearchKeyword}.
+ */
+@Entity
+public class SearchKeywordStringKey {
+	@Id
+	private String key;
+	@Index
+	private Long userId;
+	private String rawKeyword;
+	private String keyword;
+	@Index
+	private Integer searchIndex;
+	@Index
+	private Date searchDate;
+
+	private static final int MAX_KEYWORD_KEY_BYTES = 1000;
+
+	/**
+	 * Keywords longer than {@link #MAX_KEYWORD_KEY_BYTES} are replaced by their SHA-256 hash,
+	 * so key name stays under datastore limit of 1500 bytes.
+	 */
+	public static String generateKey(Long userId, Integer searchIndex, String keyword) {
+		byte[] keywordBytes = keyword.getBytes(StandardCharsets.UTF_8);
+		if (keywordBytes.length > MAX_KEYWORD_KEY_BYTES) {
+			try {
+				byte[] hash = MessageDigest.getInstance("SHA-256").digest(keywordBytes);
+				keyword = "sha256:" + String.format("%064x", new BigInteger(1, hash));
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return userId + "_" + searchIndex + "_" + keyword;
+	}
+
+	public String getKey() {
+		return key;
+	}
+	public void setKey(String key) {
+		this.key = key;
+	}
+	public Long getUserId() {
+		return userId;
+	}
+	public void setUserId(Long userId) {
+		this.userId = userId;
+	}
+	public String getRawKeyword() {
+		return rawKeyword;
+	}
+	public void setRawKeyword(String rawKeyword) {
+		this.rawKeyword = rawKeyword;
+	}
+	public String getKeyword() {
+		return keyword;
+	}
+	public void setKeyword(String keyword) {
+		this.keyword = keyword;
+	}
+	public Integer getSearchIndex() {
+		return searchIndex;
+	}
+	public void setSearchIndex(Integer searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+	public Date getSearchDate() {
+		return searchDate;
+	}
+	public void setSearchDate(Date searchDate) {
+		this.searchDate = searchDate;
+	}
+
+}
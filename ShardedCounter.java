@@ -0,0 +1,114 @@
+package pl.itcraft.soma.core.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import pl.itcraft.soma.core.model.entities.CounterShard;
+
+/**
+ * Counters of owner entity (e.g. user or item) split into {@link CounterShard}s keyed by owner id and shard number,
+ * so updates of the same owner do not contend on its entity group. Modified shards are periodically rolled up
+ * into owner entity, until then their deltas have to be added to owner values on read.
+ */
+public abstract class ShardedCounter<S extends CounterShard, E> {
+
+	private final Logger logger = Logger.getLogger(ShardedCounter.class.getName());
+
+	private final Class<S> shardClass;
+	private final Class<E> ownerClass;
+	private final String ownerIdProperty;
+	private final int numberOfShards;
+	private final int numberOfDeltas;
+
+	protected ShardedCounter(Class<S> shardClass, Class<E> ownerClass, String ownerIdProperty, int numberOfShards, int numberOfDeltas) {
+		this.shardClass = shardClass;
+		this.ownerClass = ownerClass;
+		this.ownerIdProperty = ownerIdProperty;
+		this.numberOfShards = numberOfShards;
+		this.numberOfDeltas = numberOfDeltas;
+	}
+
+	protected abstract S createShard(String key, Long ownerId);
+
+	/**
+	 * Adds deltas of rolled up shard to owner entity.
+	 */
+	protected abstract void addDeltas(E owner, int[] deltas);
+
+	/**
+	 * Called after deltas of owner are rolled up, e.g. to invalidate cached deltas.
+	 */
+	protected void rolledUp(Long ownerId) {
+	}
+
+	/**
+	 * Loads random shard of owner or creates it. Caller changes and saves it, in transaction with related changes.
+	 */
+	public S loadRandomShard(Long ownerId) {
+		String key = ownerId + "_" + ThreadLocalRandom.current().nextInt(numberOfShards);
+		S shard = ObjectifyService.ofy().load().type(shardClass).id(key).now();
+		return shard != null ? shard : createShard(key, ownerId);
+	}
+
+	/**
+	 * Returns sums of not rolled up deltas of owner. Shards not modified since last roll up have zero deltas.
+	 */
+	public int[] sumDeltas(Long ownerId) {
+		int[] sums = new int[numberOfDeltas];
+		for (S shard : ObjectifyService.ofy().load().type(shardClass).filter(ownerIdProperty, ownerId).list()) {
+			int[] deltas = shard.getDeltas();
+			for (int i = 0; i < numberOfDeltas; i++) {
+				sums[i] += deltas[i];
+			}
+		}
+		return sums;
+	}
+
+	public Query<S> modifiedShardsQuery() {
+		return ObjectifyService.ofy().load().type(shardClass).filter("modified", true);
+	}
+
+	/**
+	 * Moves deltas of given shards into their owners, one transaction per owner. Shards of not existing owners are deleted.
+	 */
+	public int rollUpShards(List<S> shards) {
+		Map<Long, List<String>> shardKeysByOwner = new HashMap<>();
+		for (S shard : shards) {
+			shardKeysByOwner.computeIfAbsent(shard.getOwnerId(), ownerId -> new ArrayList<>()).add(shard.getKey());
+		}
+		for (Map.Entry<Long, List<String>> entry : shardKeysByOwner.entrySet()) {
+			final Long ownerId = entry.getKey();
+			final List<String> shardKeys = entry.getValue();
+			ObjectifyService.ofy().transact(new VoidWork() {
+
+				@Override
+				public void vrun() {
+					E owner = ObjectifyService.ofy().load().type(ownerClass).id(ownerId).now();
+					Map<String, S> currentShards = ObjectifyService.ofy().load().type(shardClass).ids(shardKeys);
+					if (owner == null) {
+						logger.warning("Rolling up " + shardClass.getSimpleName() + " of not existing " + ownerClass.getSimpleName() + ": " + ownerId);
+						ObjectifyService.ofy().delete().entities(currentShards.values()).now();
+						return;
+					}
+					for (S shard : currentShards.values()) {
+						addDeltas(owner, shard.getDeltas());
+						shard.reset();
+					}
+					List<Object> toSave = new ArrayList<>(currentShards.values());
+					toSave.add(owner);
+					ObjectifyService.ofy().save().entities(toSave).now();
+				}
+			});
+			rolledUp(ownerId);
+		}
+		return shards.size();
+	}
+}
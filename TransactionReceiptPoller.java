@@ -0,0 +1,72 @@
+package pl.itcraft.soma.core.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+/**
+ * Fetches transaction receipts for many transactions, sending up to {@code concurrency} requests
+ * to node at once. Keeps counters of a single polling run for throughput reporting.
+ */
+public class TransactionReceiptPoller {
+
+	private static final Logger logger = Logger.getLogger(TransactionReceiptPoller.class.getName());
+
+	private final Web3j web3;
+	private final int concurrency;
+	private final long startTime = System.currentTimeMillis();
+
+	private int requested = 0;
+	private int received = 0;
+	private int failed = 0;
+
+	public TransactionReceiptPoller(Web3j web3, int concurrency) {
+		this.web3 = web3;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Returns receipts of mined transactions mapped by transaction hash. Pending transactions
+	 * and transactions which request failed for are not present in result, so they are polled again next run.
+	 */
+	public Map<String, TransactionReceipt> fetchReceipts(Collection<String> transactionHashes) {
+		List<String> hashes = new ArrayList<>(transactionHashes);
+		List<Request<?, EthGetTransactionReceipt>> requests = new ArrayList<>(hashes.size());
+		for (String hash : hashes) {
+			requests.add(web3.ethGetTransactionReceipt(hash));
+		}
+		List<CompletableFuture<EthGetTransactionReceipt>> responses = BlockchainUtils.sendAsyncLimited(requests, concurrency);
+		Map<String, TransactionReceipt> receipts = new HashMap<>();
+		for (int i = 0; i < responses.size(); i++) {
+			requested++;
+			try {
+				EthGetTransactionReceipt response = responses.get(i).join();
+				if (response.getTransactionReceipt().isPresent()) {
+					receipts.put(hashes.get(i), response.getTransactionReceipt().get());
+					received++;
+				}
+			} catch (CompletionException e) {
+				failed++;
+				logger.log(Level.WARNING, "Exception in getting transaction receipt, transactionHash: " + hashes.get(i), e.getCause());
+			}
+		}
+		return receipts;
+	}
+
+	public void logThroughput(String jobName, int updatedItems) {
+		long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+		logger.info(jobName + " : polled " + requested + " transactions (" + received + " mined, " + failed + " failed), updated "
+				+ updatedItems + " items in " + elapsed + " ms, " + (requested * 1000L / elapsed) + " transactions/s");
+	}
+}
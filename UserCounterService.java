@@ -0,0 +1,102 @@
+package pl.itcraft.soma.core.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.ObjectifyService;
+
+import pl.itcraft.soma.core.model.entities.User;
+import pl.itcraft.soma.core.model.entities.UserCounterShard;
+import pl.itcraft.soma.core.model.enums.MaintenanceJobType;
+
+/**
+ * Follower and following counters of users kept in {@link UserCounterShard}s, so follows of the same user
+ * do not contend on {@link User} entity group. Changes are rolled up into {@link User} periodically,
+ * until then they are added to {@link User} values on read. User entity values alone may be behind.
+ */
+public class UserCounterService {
+
+	private static final int NUMBER_OF_SHARDS = 20;
+	private static final int PENDING_DELTAS_CACHE_SECONDS = 60;
+	private static final String PENDING_DELTAS_CACHE_PREFIX = "userCounterDeltas_";
+
+	private final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+	private final MaintenanceJobService maintenanceJobService = new MaintenanceJobService();
+	private final ShardedCounter<UserCounterShard, User> shardedCounter = new ShardedCounter<UserCounterShard, User>(
+			UserCounterShard.class, User.class, "userId", NUMBER_OF_SHARDS, 2) {
+
+		@Override
+		protected UserCounterShard createShard(String key, Long userId) {
+			UserCounterShard shard = new UserCounterShard();
+			shard.setKey(key);
+			shard.setUserId(userId);
+			return shard;
+		}
+
+		@Override
+		protected void addDeltas(User user, int[] deltas) {
+			user.setNumberOfFollowers(user.getNumberOfFollowers() + deltas[0]);
+			user.setNumberOfFollowings(user.getNumberOfFollowings() + deltas[1]);
+		}
+
+		@Override
+		protected void rolledUp(Long userId) {
+			invalidateCachedCounters(userId);
+		}
+	};
+
+	/**
+	 * Adds delta to followings of follower and followers of followed user, each in a random shard.
+	 * Should be called in transaction saving the following itself, followed by {@link #invalidateCachedCounters}
+	 * after commit.
+	 */
+	public void addFollowing(Long followerId, Long followedId, int delta) {
+		UserCounterShard followerShard = shardedCounter.loadRandomShard(followerId);
+		followerShard.addFollowings(delta);
+		ObjectifyService.ofy().save().entity(followerShard).now();
+
+		UserCounterShard followedShard = shardedCounter.loadRandomShard(followedId);
+		followedShard.addFollowers(delta);
+		ObjectifyService.ofy().save().entity(followedShard).now();
+	}
+
+	public void invalidateCachedCounters(Long... userIds) {
+		List<String> cacheKeys = new ArrayList<>(userIds.length);
+		for (Long userId : userIds) {
+			cacheKeys.add(PENDING_DELTAS_CACHE_PREFIX + userId);
+		}
+		memcacheService.deleteAll(cacheKeys);
+	}
+
+	public int getNumberOfFollowers(User user) {
+		return Math.max(0, user.getNumberOfFollowers() + getPendingDeltas(user.getId())[0]);
+	}
+
+	public int getNumberOfFollowings(User user) {
+		return Math.max(0, user.getNumberOfFollowings() + getPendingDeltas(user.getId())[1]);
+	}
+
+	public void startCountersRollUp() {
+		maintenanceJobService.start(MaintenanceJobType.ROLL_UP_USER_COUNTERS, null);
+	}
+
+	public ShardedCounter<UserCounterShard, User> getShardedCounter() {
+		return shardedCounter;
+	}
+
+	/**
+	 * Returns sums of not rolled up followers and followings deltas of user.
+	 */
+	private int[] getPendingDeltas(Long userId) {
+		String cacheKey = PENDING_DELTAS_CACHE_PREFIX + userId;
+		int[] deltas = (int[]) memcacheService.get(cacheKey);
+		if (deltas == null) {
+			deltas = shardedCounter.sumDeltas(userId);
+			memcacheService.put(cacheKey, deltas, Expiration.byDeltaSeconds(PENDING_DELTAS_CACHE_SECONDS));
+		}
+		return deltas;
+	}
+}
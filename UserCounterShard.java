@@ -0,0 +1,74 @@
+package pl.itcraft.soma.core.model.entities;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+/**
+ * Shard of follower and following counters of user. Keeps changes not yet rolled up into {@link User}.
+ */
+@Entity
+public class UserCounterShard implements CounterShard {
+	@Id
+	private	String key;
+	@Index
+	private Long userId;
+	@Index
+	private Boolean modified = false;
+	private Integer followersDelta = 0;
+	private Integer followingsDelta = 0;
+
+	public String getKey() {
+		return key;
+	}
+	public void setKey(String key) {
+		this.key = key;
+	}
+	public Long getUserId() {
+		return userId;
+	}
+	public void setUserId(Long userId) {
+		this.userId = userId;
+	}
+	public Boolean getModified() {
+		return modified;
+	}
+	public void setModified(Boolean modified) {
+		this.modified = modified;
+	}
+	public Integer getFollowersDelta() {
+		return followersDelta;
+	}
+	public void setFollowersDelta(Integer followersDelta) {
+		this.followersDelta = followersDelta;
+	}
+	public Integer getFollowingsDelta() {
+		return followingsDelta;
+	}
+	public void setFollowingsDelta(Integer followingsDelta) {
+		this.followingsDelta = followingsDelta;
+	}
+	public void addFollowers(int delta) {
+		followersDelta += delta;
+		modified = true;
+	}
+	public void addFollowings(int delta) {
+		followingsDelta += delta;
+		modified = true;
+	}
+	@Override
+	public Long getOwnerId() {
+		return userId;
+	}
+	@Override
+	public int[] getDeltas() {
+		return new int[] { followersDelta, followingsDelta };
+	}
+	@Override
+	public void reset() {
+		followersDelta = 0;
+		followingsDelta = 0;
+		modified = false;
+	}
+
+}
@@ -121,6 +121,7 @@ public class UserEndpoint {
 		try {
 			User user = endpointUtils.authenticateUser(request);
 			userService.logoutUser(user, fcmRegistrationId);
+			endpointUtils.invalidateAuthentication(request);
 		} catch (ServiceException e) {
 			throw e;
 		} catch (Exception e) {
@@ -138,7 +139,9 @@ public class UserEndpoint {
 			@Named("about") String about) throws ServiceException {
 		try {
 			User user = endpointUtils.authenticateUser(request);
-			return new OwnProfileDto(userService.editProfile(user, username, latitude, longitude, locationName, about));
+			User editedUser = userService.editProfile(user, username, latitude, longitude, locationName, about);
+			endpointUtils.invalidateAuthentication(request);
+			return new OwnProfileDto(editedUser);
 		} catch (ServiceException e) {
 			throw e;
 		} catch (Exception e) {
@@ -190,6 +193,7 @@ public class UserEndpoint {
 		try {
 			User user = endpointUtils.authenticateUser(request);
 			userService.changePassword(user, oldPassword, newPassword);
+			endpointUtils.invalidateAuthentication(request);
 		} catch (ServiceException e) {
 			throw e;
 		} catch (Exception e) {
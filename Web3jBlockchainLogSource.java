@@ -0,0 +1,53 @@
+package pl.itcraft.soma.core.utils;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+
+public class Web3jBlockchainLogSource implements BlockchainLogSource {
+
+	private static final Logger logger = Logger.getLogger(Web3jBlockchainLogSource.class.getName());
+
+	private final Web3j web3;
+
+	public Web3jBlockchainLogSource(Web3j web3) {
+		this.web3 = web3;
+	}
+
+	@Override
+	public BigInteger getLatestBlockNumber() {
+		try {
+			return web3.ethBlockNumber().send().getBlockNumber();
+		} catch (IOException e) {
+			logger.warning("IOException in getting latest block number");
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public List<Log> getLogs(String contractAddress, BigInteger fromBlock, BigInteger toBlock) {
+		EthFilter filter = new EthFilter(new DefaultBlockParameterNumber(fromBlock), new DefaultBlockParameterNumber(toBlock), contractAddress);
+		try {
+			EthLog ethLog = web3.ethGetLogs(filter).send();
+			if (ethLog.getError() != null) {
+				throw new RuntimeException("Error in getting logs: " + ethLog.getError().getMessage());
+			}
+			List<Log> logs = new ArrayList<>();
+			for (EthLog.LogResult<?> logResult : ethLog.getLogs()) {
+				logs.add((Log) logResult.get());
+			}
+			return logs;
+		} catch (IOException e) {
+			logger.warning("IOException in getting logs of contract: " + contractAddress);
+			throw new RuntimeException(e);
+		}
+	}
+}
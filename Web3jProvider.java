@@ -0,0 +1,82 @@
+package pl.itcraft.soma.core.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.http.HttpService;
+
+import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.LifecycleManager.ShutdownHook;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import pl.itcraft.soma.core.Constants;
+
+/**
+ * Holds single Web3j client shared by all blockchain calls, so HTTP connections to Ethereum node
+ * are kept alive and reused instead of being set up on every call.
+ * Timeouts and pool size can be overridden with system properties in appengine-web.xml.
+ */
+public class Web3jProvider {
+
+	private static final Logger logger = Logger.getLogger(Web3jProvider.class.getName());
+
+	private static final long CONNECT_TIMEOUT_SECONDS = Long.getLong("ethereum.node.connectTimeoutSeconds", 10);
+	private static final long READ_TIMEOUT_SECONDS = Long.getLong("ethereum.node.readTimeoutSeconds", 30);
+	private static final long WRITE_TIMEOUT_SECONDS = Long.getLong("ethereum.node.writeTimeoutSeconds", 30);
+	private static final int MAX_IDLE_CONNECTIONS = Integer.getInteger("ethereum.node.maxIdleConnections", 10);
+	private static final long KEEP_ALIVE_MINUTES = Long.getLong("ethereum.node.keepAliveMinutes", 5);
+
+	private static volatile Web3j web3j;
+	private static OkHttpClient httpClient;
+
+	private Web3jProvider() {}
+
+	public static Web3j getWeb3j() {
+		Web3j result = web3j;
+		if (result == null) {
+			synchronized (Web3jProvider.class) {
+				result = web3j;
+				if (result == null) {
+					result = web3j = create();
+				}
+			}
+		}
+		return result;
+	}
+
+	private static Web3j create() {
+		httpClient = new OkHttpClient.Builder()
+				.connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+				.connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				.readTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				.writeTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				.retryOnConnectionFailure(true)
+				.build();
+		// App Engine calls single registered hook when instance is stopped, setting it again replaces it
+		LifecycleManager.getInstance().setShutdownHook(new ShutdownHook() {
+			@Override
+			public void shutdown() {
+				Web3jProvider.shutdown();
+			}
+		});
+		logger.info("Creating Web3j client for node: " + Constants.ETHEREUM_NODE_URL);
+		return Web3j.build(new HttpService(Constants.ETHEREUM_NODE_URL, httpClient, false));
+	}
+
+	/**
+	 * Closes shared client and its connections, next {@link #getWeb3j()} call creates a new one.
+	 */
+	public static synchronized void shutdown() {
+		if (web3j == null) {
+			return;
+		}
+		web3j.shutdown();
+		httpClient.dispatcher().executorService().shutdown();
+		httpClient.connectionPool().evictAll();
+		web3j = null;
+		httpClient = null;
+		logger.info("Web3j client shut down");
+	}
+}